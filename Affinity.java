@@ -0,0 +1,91 @@
+ 
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Affinity reads the NUMA topology of the machine and pins threads to sets of CPUs, so that a group of workers stays
+ * on one socket and works on memory local to it. Java has no API for thread affinity, so this is Linux only: the
+ * topology is read from /sys, the kernel id of the calling thread from /proc/thread-self, and the thread is pinned
+ * with the taskset command. Anywhere this is not available, pinning fails quietly after a single warning, and the
+ * threads run wherever the operating system schedules them.
+ *
+ * Pinning only keeps threads on their CPUs; for objects to be allocated in memory local to those CPUs the JVM must
+ * also be run with -XX:+UseNUMA.
+ *
+ * @author Matt Powell
+ * @version 1.0
+ */
+public class Affinity
+{
+    private static final Path NODES = Paths.get("/sys/devices/system/node");
+    private static final Path THREAD_SELF = Paths.get("/proc/thread-self");
+    private static final long TASKSET_TIMEOUT = 5; // seconds to wait for taskset
+    private static final AtomicBoolean warned = new AtomicBoolean();
+
+    /**
+     * Method returns the CPU list of each NUMA node that has CPUs, in node order, in the form used by
+     * the kernel, such as 0-7,16-23. The list is empty if the topology cannot be read.
+     *
+     * @returns List<String> CPU list of each node
+     */
+    public static List<String> nodes(){
+        TreeMap<Integer, String> nodes = new TreeMap<Integer, String>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(NODES, "node[0-9]*")){
+            for (Path dir: dirs){
+                String cpus = new String(Files.readAllBytes(dir.resolve("cpulist")), StandardCharsets.US_ASCII).trim();
+                if (!cpus.isEmpty()){
+                    nodes.put(Integer.parseInt(dir.getFileName().toString().substring(4)), cpus);
+                }
+            }
+        } catch (IOException | NumberFormatException e){
+            return new ArrayList<String>();
+        }
+        return new ArrayList<String>(nodes.values());
+    }
+
+    /**
+     * Method pins the calling thread to the given CPUs. If the thread cannot be pinned, a warning is
+     * printed the first time, and the thread carries on unpinned.
+     *
+     * @param cpus CPU list, in the form returned by nodes
+     * @returns true if the thread was pinned
+     */
+    public static boolean pin(String cpus){
+        String reason;
+        try{
+            // The link reads as <pid>/task/<tid>
+            String link = Files.readSymbolicLink(THREAD_SELF).toString();
+            String tid = link.substring(link.lastIndexOf('/') + 1);
+            Process taskset = new ProcessBuilder("taskset", "-p", "-c", cpus, tid)
+                .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            if (!taskset.waitFor(TASKSET_TIMEOUT, TimeUnit.SECONDS)){
+                taskset.destroy();
+                reason = "taskset did not finish";
+            } else if (taskset.exitValue() != 0){
+                reason = "taskset exited with status " + taskset.exitValue();
+            } else {
+                return true;
+            }
+        } catch (IOException | UnsupportedOperationException e){
+            reason = e.getMessage();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            reason = "interrupted";
+        }
+        if (!warned.getAndSet(true)){
+            System.out.println("Unable to pin threads to CPUs (" + reason + "), threads are not pinned.");
+        }
+        return false;
+    }
+}
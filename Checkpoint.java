@@ -0,0 +1,346 @@
+ 
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+
+/**
+ * Checkpoint saves the state of a run to a compact binary file, and reads it back so the run can be resumed. The file
+ * holds the number of evaluations made, a seed for the random number streams of the resumed run, the elite designs of each island
+ * with their fitness, and the population being evolved. Genomes are stored as their packed words, so no Problem
+ * object is written, unlike designs.ser.
+ *
+ * A checkpoint is written to a temporary file, forced to disk, then moved over the previous checkpoint in one step,
+ * so a crash while writing leaves the previous checkpoint intact. A CRC32 of the contents is stored last, so a
+ * damaged file is detected on reading.
+ *
+ * The population is copied while members carry on evolving it, so a design may be saved part way through being
+ * evolved. Population designs are therefore saved without their fitness, and are evaluated again on resuming.
+ *
+ * The population is written a block at a time, and read back as a view over the file, mapped in segments of at most
+ * MAX_SEGMENT bytes, so a checkpoint of a population held in a PopulationStore never needs the whole population on the
+ * heap, however large it is.
+ *
+ * Layout, big-endian: MAGIC, VERSION, problem class name (length and UTF-8 bytes), evaluations made, random seed,
+ * genome length, number of islands, then for each island the number of elite designs and the fitness and words of
+ * each, then the number of population designs and the words of each, and finally the CRC32.
+ *
+ * @author Matt Powell
+ * @version 1.0
+ */
+public class Checkpoint
+{
+    private static final int MAGIC = 0x4741434B; // "GACK"
+    private static final int VERSION = 1;
+    private static final int BLOCK = 1 << 16; // bytes of population written or checked at a time
+    private static final long MAX_SEGMENT = 1L << 30; // largest mapping of the population, in bytes
+    private final long evaluations;
+    private final long seed;
+    private final List<List<Design>> elites;
+    private final List<Design> population;
+
+    private Checkpoint(long evaluations, long seed, List<List<Design>> elites, List<Design> population) {
+        this.evaluations = evaluations;
+        this.seed = seed;
+        this.elites = elites;
+        this.population = population;
+    }
+
+    /**
+     * Method writes a checkpoint of the run to the given file, replacing any previous checkpoint.
+     *
+     * @param file Path of the checkpoint
+     * @param data GAData holding the islands and evaluation count of the run
+     * @param population designs being evolved by the members
+     * @param seed seed the random number streams of a run resumed from this checkpoint are derived from
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public static void write(Path file, GAData data, List<Design> population, long seed) throws IOException {
+        // Count the evaluations held unreported in leases too, else a resumed run would make them again.
+        // Then copy the elite designs of each island, under the lock of its archive, before sizing the buffer
+        long evaluations = data.getEvaluationsMade();
+        ArrayList<List<Design>> elites = new ArrayList<List<Design>>();
+        for (int i = 0; i < data.getIslandCount(); i++){
+            elites.add(data.getIsland(i).getEliteArchive().copyBest(Integer.MAX_VALUE));
+        }
+        int length = population.isEmpty() ? 0 : population.get(0).getGenome().length();
+        int words = Genome.wordCount(length);
+        byte[] name = data.getProblem().getClass().getName().getBytes(StandardCharsets.UTF_8);
+
+        // The header and elite designs are written from one buffer, and the population after them in blocks
+        int size = 4 + 4 + 4 + name.length + 8 + 8 + 4 + 4 + 4;
+        for (List<Design> island: elites){
+            size += 4 + island.size() * (8 + words * 8);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        buffer.putInt(name.length).put(name);
+        buffer.putLong(evaluations);
+        buffer.putLong(seed);
+        buffer.putInt(length);
+        buffer.putInt(elites.size());
+        for (List<Design> island: elites){
+            buffer.putInt(island.size());
+            for (Design d: island){
+                buffer.putDouble(d.getFitness());
+                for (long w: d.getGenome().words()){
+                    buffer.putLong(w);
+                }
+            }
+        }
+        buffer.putInt(population.size());
+        buffer.flip();
+
+        // Write to a temporary file beside the checkpoint, then move it into place
+        CRC32 crc = new CRC32();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)){
+            Checkpoint.writeBlock(channel, buffer, crc);
+            buffer = ByteBuffer.allocate(Math.max(BLOCK, words * 8));
+            for (Design d: population){
+                if (buffer.remaining() < words * 8){
+                    Checkpoint.writeBlock(channel, buffer.flip(), crc);
+                    buffer.clear();
+                }
+                for (long w: d.getGenome().toLongArray()){
+                    buffer.putLong(w);
+                }
+            }
+            Checkpoint.writeBlock(channel, buffer.flip(), crc);
+            buffer.clear();
+            buffer.putLong(crc.getValue()).flip();
+            while (buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        try{
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e){
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /*
+     * Method writes the contents of the buffer to the channel, adding them to the CRC
+     */
+    private static void writeBlock(FileChannel channel, ByteBuffer buffer, CRC32 crc) throws IOException {
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Method reads a checkpoint written by write, building its designs for the given problem. The header and elite
+     * designs are read through the channel, while the population is mapped in segments of at most MAX_SEGMENT bytes,
+     * as a single mapping cannot exceed 2GB, and is a view over them, so it is decoded as it is used.
+     *
+     * @param file Path of the checkpoint
+     * @param problem Problem of the run being resumed, which must be the problem of the checkpoint
+     * @returns Checkpoint holding the state read
+     * @throws IOException if the file cannot be read, is damaged or is for a different problem
+     */
+    public static Checkpoint read(Path file, Problem problem) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            long size = channel.size();
+            if (size < 16){
+                throw new IOException(file + " is truncated");
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BLOCK));
+            if (in.readInt() != MAGIC){
+                throw new IOException(file + " is not a checkpoint");
+            }
+            int version = in.readInt();
+            if (version != VERSION){
+                throw new IOException(file + " is a version " + version + " checkpoint, only version " + VERSION + " can be read");
+            }
+            if (Checkpoint.checksum(channel, size - 8) != Checkpoint.readLong(channel, size - 8)){
+                throw new IOException(file + " is damaged");
+            }
+            byte[] name = new byte[in.readInt()];
+            in.readFully(name);
+            String problemName = new String(name, StandardCharsets.UTF_8);
+            if (!problemName.equals(problem.getClass().getName())){
+                throw new IOException(file + " is a checkpoint of " + problemName + ", not " + problem.getClass().getName());
+            }
+            long evaluations = in.readLong();
+            long seed = in.readLong();
+            int length = in.readInt();
+            int words = Genome.wordCount(length);
+            long position = 4 + 4 + 4 + name.length + 8 + 8 + 4 + 4; // bytes read so far
+            ArrayList<List<Design>> elites = new ArrayList<List<Design>>();
+            for (int islands = in.readInt(); elites.size() < islands; ){
+                int n = in.readInt();
+                ArrayList<Design> island = new ArrayList<Design>(n);
+                for (int i = 0; i < n; i++){
+                    double fitness = in.readDouble();
+                    long[] genome = new long[words];
+                    for (int w = 0; w < words; w++){
+                        genome[w] = in.readLong();
+                    }
+                    Design d = new Design(problem, new Genome(length, genome));
+                    d.setFitness(fitness);
+                    island.add(d);
+                }
+                elites.add(island);
+                position += 4 + (long) n * (8 + words * 8);
+            }
+            int n = in.readInt();
+            position += 4;
+            if (size - position != (long) n * words * 8 + 8){
+                throw new IOException(file + " is truncated");
+            }
+            return new Checkpoint(evaluations, seed, elites, Checkpoint.mapPopulation(channel, position, n, problem, length));
+        } catch (EOFException e){
+            throw new IOException(file + " is truncated");
+        }
+    }
+
+    /*
+     * Method returns the CRC32 of the first size bytes of the file, read a block at a time
+     */
+    private static long checksum(FileChannel channel, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK);
+        for (long position = 0; position < size; ){
+            buffer.clear().limit((int) Math.min(BLOCK, size - position));
+            int read = channel.read(buffer, position);
+            if (read < 0){
+                throw new EOFException();
+            }
+            crc.update(buffer.flip());
+            position += read;
+        }
+        return crc.getValue();
+    }
+
+    /*
+     * Method reads the big-endian long at the given position of the file
+     */
+    private static long readLong(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        while (buffer.hasRemaining()){
+            if (channel.read(buffer, position + buffer.position()) < 0){
+                throw new EOFException();
+            }
+        }
+        return buffer.getLong(0);
+    }
+
+    /*
+     * Method maps the n population designs starting at the given position of the file, in segments of at most
+     * MAX_SEGMENT bytes which each hold whole designs, and returns a list decoding each design as it is read.
+     * The mappings stay valid once the channel is closed
+     */
+    private static List<Design> mapPopulation(FileChannel channel, long position, int n, Problem problem, int length) 
+            throws IOException {
+        int designBytes = Genome.wordCount(length) * 8;
+        if (n == 0 || designBytes == 0){
+            return new AbstractList<Design>(){
+                @Override
+                public Design get(int index){
+                    Objects.checkIndex(index, n);
+                    return new Design(problem, new Genome(length));
+                }
+
+                @Override
+                public int size(){
+                    return n;
+                }
+            };
+        }
+        int perSegment = (int) Math.max(1, Math.min(MAX_SEGMENT / designBytes, n));
+        MappedByteBuffer[] segments = new MappedByteBuffer[(n + perSegment - 1) / perSegment];
+        for (int s = 0; s < segments.length; s++){
+            long first = (long) s * perSegment;
+            long count = Math.min(perSegment, n - first);
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, position + first * designBytes, count * designBytes);
+        }
+        return new AbstractList<Design>(){
+            @Override
+            public Design get(int index){
+                Objects.checkIndex(index, n);
+                // The offset within a segment is below MAX_SEGMENT, so fits an int
+                ByteBuffer segment = segments[index / perSegment].duplicate();
+                segment.position((index % perSegment) * designBytes);
+                long[] words = new long[designBytes / 8];
+                for (int w = 0; w < words.length; w++){
+                    words[w] = segment.getLong();
+                }
+                return new Design(problem, new Genome(length, words));
+            }
+
+            @Override
+            public int size(){
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Method restores the evaluation count and elite designs of this checkpoint into
+     * the given data, before the algorithm starts. If the run has a different number of islands to the
+     * checkpoint, the islands take the elite designs of the saved islands in turn.
+     *
+     * @param data GAData of the resumed run
+     */
+    public void restore(GAData data){
+        data.resumeEvaluationCount(this.evaluations);
+        if (this.elites.isEmpty()){
+            return;
+        }
+        for (int i = 0; i < data.getIslandCount(); i++){
+            for (Design d: this.elites.get(i % this.elites.size())){
+                // Each island is given its own copies, as archives may recycle the designs they evict
+                data.getIsland(i).addEliteDesign(i < this.elites.size() ? d : new Design(d));
+            }
+        }
+    }
+
+    /**
+     * Method returns the population designs of this checkpoint, which have not been evaluated. Each design
+     * is decoded from the file as it is read from the list.
+     *
+     * @returns List<Design> saved population
+     */
+    public List<Design> getPopulation(){
+        return this.population;
+    }
+
+    /**
+     * Method returns the seed the random number streams of the resumed run are derived from.
+     *
+     * @returns seed
+     */
+    public long getSeed(){
+        return this.seed;
+    }
+
+    /**
+     * Method returns the number of evaluations made before this checkpoint was written.
+     *
+     * @returns number of evaluations
+     */
+    public long getEvaluations(){
+        return this.evaluations;
+    }
+}
@@ -1,7 +1,9 @@
 package ga;
 
-import java.util.ArrayList;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.io.Serializable;
 
 /**
@@ -17,11 +19,23 @@ public class Design implements Comparable<Design>, Serializable
     private static final int SMALLER = -1;
     private static final int EQUAL = 0;
     private static final int BIGGER = 1;
-    private static final Random rng = new Random();
+    private static final SplittableRandom seeds = new SplittableRandom(); // source of the default streams, guarded by itself
+    private static final ThreadLocal<SplittableRandom> streams = 
+        ThreadLocal.withInitial(() -> { synchronized (Design.seeds) { return Design.seeds.split(); } });
+    private static final int MASK_PRECISION = 16; // bits of the crossover probability used to bias masks
+    private static final AtomicIntegerFieldUpdater<Design> PINS = 
+        AtomicIntegerFieldUpdater.newUpdater(Design.class, "pins");
+    private static final double UNEVALUATED = Double.NaN; // fitness of a design not yet evaluated
     // state members
-    private Number value; // value (quality) of this design
+    private double fitness = UNEVALUATED; // value (quality) of this design
     private Problem problem; // problem being solved
-    private ArrayList<Boolean> designVector; // solution representation
+    private Genome genome; // solution representation, bit-packed
+    private transient volatile int pins; // number of readers currently using this design as a parent
+    private long hash; // cached 64-bit hash of the genome, valid when hashed is true
+    private boolean hashed;
+    private transient boolean tracking; // whether the bits changed since parentFitness was evaluated are being tracked
+    private transient double parentFitness = UNEVALUATED; // value of the design this design was bred from, while tracking
+    private transient long[] changes; // bits changed since parentFitness was evaluated, packed as the genome is
     
     /**
      * Constructs this design initially with a random solution for the given Problem argument
@@ -30,15 +44,257 @@ public class Design implements Comparable<Design>, Serializable
      */
     Design(Problem problem){
         this.problem = problem;
-        this.designVector = problem.getRandomDesignVector();
+        this.genome = Genome.fromList(problem.getRandomDesignVector());
+    }
+
+    /**
+     * Constructs this design initially with a random solution for the given Problem argument,
+     * drawn from the given random number stream
+     * 
+     * @param problem Problem that this design will be tackling
+     * @param rng stream of random numbers the solution is drawn from
+     */
+    Design(Problem problem, SplittableRandom rng){
+        this.problem = problem;
+        this.genome = Genome.fromList(problem.getRandomDesignVector(rng));
+    }
+
+    /**
+     * Constructs this design with the given genome for the given Problem argument
+     * 
+     * @param problem Problem that this design will be tackling
+     * @param genome Genome holding the solution, which this design takes ownership of
+     */
+    Design(Problem problem, Genome genome){
+        this.problem = problem;
+        this.genome = genome;
+    }
+
+    /**
+     * Constructs this design as a copy of the other design. The genome is copied, while the problem,
+     * which is never modified, is shared rather than copied.
+     * 
+     * @param other Design to copy
+     */
+    Design(Design other){
+        this.problem = other.problem;
+        this.genome = new Genome(other.genome);
+        this.fitness = other.fitness;
+        this.hash = other.hash;
+        this.hashed = other.hashed;
+        this.tracking = other.tracking;
+        this.parentFitness = other.parentFitness;
+        this.changes = other.changes == null ? null : other.changes.clone();
+    }
+
+    /**
+     * Method overwrites this design with a copy of the other design, reusing the genome of this 
+     * design where it has the same length
+     * 
+     * @param other Design to copy
+     */
+    void copyFrom(Design other){
+        this.problem = other.problem;
+        if (this.genome.length() == other.genome.length()){
+            System.arraycopy(other.genome.words(), 0, this.genome.words(), 0, this.genome.words().length);
+        } else {
+            this.genome = new Genome(other.genome);
+        }
+        this.fitness = other.fitness;
+        this.hash = other.hash;
+        this.hashed = other.hashed;
+        this.tracking = other.tracking;
+        this.parentFitness = other.parentFitness;
+        if (other.tracking){
+            if (this.changes == null || this.changes.length != other.changes.length){
+                this.changes = other.changes.clone();
+            } else {
+                System.arraycopy(other.changes, 0, this.changes, 0, this.changes.length);
+            }
+        }
+    }
+
+    /**
+     * Method marks this design as being read by another thread, so that it is not recycled 
+     * until unpin is called
+     */
+    void pin(){
+        PINS.incrementAndGet(this);
+    }
+
+    /**
+     * Method releases a mark made by pin
+     */
+    void unpin(){
+        PINS.decrementAndGet(this);
+    }
+
+    /**
+     * Method returns whether any thread has marked this design as being read
+     * 
+     * @return true if pinned, false otherwise
+     */
+    boolean isPinned(){
+        return this.pins != 0;
+    }
+
+    /**
+     * Method returns the 64-bit hash of the genome of this design, computing it on first use 
+     * after the design was created or last evolved
+     * 
+     * @return 64-bit genome hash
+     */
+    long genomeHash(){
+        if (!this.hashed){
+            this.hash = this.genome.hash64();
+            this.hashed = true;
+        }
+        return this.hash;
+    }
+
+    /**
+     * Method sets the fitness of this design without evaluating it, for a value already known, 
+     * such as one found in a fitness cache
+     * 
+     * @param fitness value (quality) of this design
+     */
+    synchronized void setFitness(double fitness){
+        this.fitness = Design.checkFitness(fitness);
+        this.tracking = false;
+    }
+
+    /**
+     * Method sets the fitness of this design after its genome has been overwritten in place, as a 
+     * PopulationStore does when reading a slot into it. NaN marks the design as not evaluated.
+     * 
+     * @param fitness value (quality) of the design now held, or NaN
+     */
+    void reset(double fitness){
+        this.fitness = fitness;
+        this.hashed = false;
+        this.tracking = false;
     }
 
     /**
      * Evaluates this design on its problem
      */
     synchronized void evaluate() {
-        if (this.value == null)
-            this.value = this.problem.evaluate(this);
+        if (!this.isEvaluated()){
+            if (this.tracking)
+                this.evaluateDelta();
+            else if (this.problem instanceof DoubleProblem)
+                this.fitness = Design.checkFitness(((DoubleProblem) this.problem).evaluateDouble(this));
+            else
+                this.fitness = Design.checkFitness(Design.unbox(this.problem.evaluate(this)));
+        }
+    }
+
+    /**
+     * Evaluates the first count designs of the array that have not yet been evaluated, in a 
+     * single batch on their problem. All of the designs must be tackling the same problem.
+     * 
+     * @param designs array containing the designs to evaluate
+     * @param count number of designs, from the start of the array, to evaluate
+     */
+    static void evaluateAll(Design[] designs, int count) {
+        Design[] batch = new Design[count];
+        int n = 0;
+        for (int i = 0; i < count; i++){
+            // Designs whose changes are tracked are evaluated from their parent's value instead
+            if (designs[i].tracking)
+                designs[i].evaluate();
+            else if (!designs[i].isEvaluated())
+                batch[n++] = designs[i];
+        }
+        if (n == 0)
+            return;
+        if (n < count)
+            batch = Arrays.copyOf(batch, n);
+        Problem problem = batch[0].problem;
+        if (problem instanceof DoubleProblem){
+            double[] values = ((DoubleProblem) problem).evaluateAllDouble(batch);
+            Design.checkBatch(values.length, n);
+            for (int i = 0; i < n; i++)
+                batch[i].setFitness(values[i]);
+        } else {
+            Number[] values = problem.evaluateAll(batch);
+            Design.checkBatch(values.length, n);
+            for (int i = 0; i < n; i++)
+                batch[i].setFitness(Design.unbox(values[i]));
+        }
+    }
+
+    /*
+     * Method evaluates this design from the value of its parent and the bits changed since, then stops tracking
+     */
+    private void evaluateDelta(){
+        int[] changed = new int[Design.countChanges(this.changes)];
+        int n = 0;
+        for (int w = 0; w < this.changes.length; w++){
+            for (long bits = this.changes[w]; bits != 0; bits &= bits - 1)
+                changed[n++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+        }
+        this.fitness = Design.checkFitness(((IncrementalProblem) this.problem).evaluateDelta(this, this.parentFitness, changed));
+        this.tracking = false;
+    }
+
+    /*
+     * Method returns the number of set bits in the given words
+     */
+    private static int countChanges(long[] words){
+        int count = 0;
+        for (long w: words)
+            count += Long.bitCount(w);
+        return count;
+    }
+
+    /*
+     * Method starts tracking the bits changed by evolution, if the problem evaluates incrementally and this 
+     * design holds an evaluated design to evolve from. Changes are accumulated if already tracking
+     */
+    private void startTracking(){
+        if (!(this.problem instanceof IncrementalProblem) || !this.isEvaluated())
+            return;
+        if (this.changes == null || this.changes.length != this.genome.words().length)
+            this.changes = new long[this.genome.words().length];
+        else
+            Arrays.fill(this.changes, 0);
+        this.parentFitness = this.fitness;
+        this.tracking = true;
+    }
+
+    /*
+     * Method flips the bit at the given index, recording the change if tracking
+     */
+    private void flip(int index){
+        this.genome.flip(index);
+        if (this.tracking)
+            this.changes[index >>> 6] ^= 1L << index;
+    }
+
+    /*
+     * Method returns the double value of an evaluation returned by a Problem, which must not be null
+     */
+    private static double unbox(Number value){
+        if (value == null)
+            throw new IllegalStateException("Problem returned null as the evaluation of a design");
+        return value.doubleValue();
+    }
+
+    /*
+     * Method returns the fitness to store for an evaluation. NaN marks a design as not evaluated, so
+     * a problem returning NaN has its design stored as the worst possible value instead
+     */
+    private static double checkFitness(double fitness){
+        return Double.isNaN(fitness) ? Double.NEGATIVE_INFINITY : fitness;
+    }
+
+    /*
+     * Method checks that a problem returned one evaluation per design in a batch
+     */
+    private static void checkBatch(int values, int designs){
+        if (values != designs)
+            throw new IllegalStateException("Problem returned " + values + " values for a batch of " + designs + " designs");
     }
 
     /** {@InheritDoc}
@@ -49,9 +305,9 @@ public class Design implements Comparable<Design>, Serializable
             return Design.EQUAL;
         if (this.equals(otherDesign)) //need to ensure consistency with equals  
             return Design.EQUAL; 
-        if (this.value.doubleValue() < otherDesign.value.doubleValue())
+        if (this.fitness < otherDesign.fitness)
             return Design.SMALLER;
-        else if (this.value.doubleValue() > otherDesign.value.doubleValue())
+        else if (this.fitness > otherDesign.fitness)
             return Design.BIGGER;
         return Design.EQUAL;       
     }
@@ -65,7 +321,7 @@ public class Design implements Comparable<Design>, Serializable
         if (this == obj)
             return true;
         if (obj instanceof Design)
-            if (this.designVector.equals(((Design) obj).designVector))
+            if (this.genome.equals(((Design) obj).genome))
                 return true;
 
         return false;    
@@ -75,7 +331,7 @@ public class Design implements Comparable<Design>, Serializable
      */
     @Override
     public int hashCode(){
-        return designVector.hashCode();
+        return genome.hashCode();
     }
     
     /**
@@ -84,7 +340,7 @@ public class Design implements Comparable<Design>, Serializable
      * @return true if evaluated, false otherwise
      */
     boolean isEvaluated() {
-        return value != null;
+        return !Double.isNaN(this.fitness);
     }
 
     /**
@@ -100,19 +356,84 @@ public class Design implements Comparable<Design>, Serializable
      * must be on the range [0,1]
      */
     void evolve(Design otherDesign, double crossoverProb, double mutationProb) {
-        this.crossover(otherDesign, crossoverProb);
-        this.mutate(mutationProb);
-        this.value = null;
+        this.evolve(otherDesign, crossoverProb, mutationProb, EvolutionKernel.BITWISE);
+    }
+
+    /**
+     * Method evolves this design as evolve(Design, double, double) does, using the given
+     * kernel to perform the crossover and mutation
+     * 
+     * @param otherDesign design to use as the other parent alsongside this design
+     * @param crossoverProb probability of crossing-over an element from the otherDesign, 
+     * must be on the range [0,1]
+     * @param mutationProb probability of mutating an element from this design, 
+     * must be on the range [0,1]
+     * @param kernel implementation of crossover and mutation to use
+     */
+    void evolve(Design otherDesign, double crossoverProb, double mutationProb, EvolutionKernel kernel) {
+        this.evolve(otherDesign, crossoverProb, mutationProb, kernel, Design.streams.get());
+    }
+
+    /**
+     * Method evolves this design as evolve(Design, double, double, EvolutionKernel) does, drawing
+     * its random numbers from the given stream, so that a worker given its own stream from a seed
+     * evolves its designs the same way every run. Without a stream, each thread uses its own
+     * unseeded stream.
+     * 
+     * @param otherDesign design to use as the other parent alsongside this design
+     * @param crossoverProb probability of crossing-over an element from the otherDesign, 
+     * must be on the range [0,1]
+     * @param mutationProb probability of mutating an element from this design, 
+     * must be on the range [0,1]
+     * @param kernel implementation of crossover and mutation to use
+     * @param rng stream of random numbers, used by one thread at a time
+     */
+    void evolve(Design otherDesign, double crossoverProb, double mutationProb, EvolutionKernel kernel, SplittableRandom rng) {
+        this.startTracking();
+        if (kernel == EvolutionKernel.WORD){
+            this.crossoverWords(otherDesign, crossoverProb, rng);
+            this.mutateSkip(mutationProb, rng);
+        } else {
+            this.crossover(otherDesign, crossoverProb, rng);
+            this.mutate(mutationProb, rng);
+        }
+        this.fitness = UNEVALUATED;
+        this.hashed = false;
     }
     
     /**
      * Method returns a Boolean array containing the design parameters of this
-     * design
+     * design. Problems that do not need a copy should use getGenome instead, which
+     * does not box or allocate.
      * 
      * @returns array containing the design parameters of this design
      */
     public Boolean[] getDesignParameters() {
-        return this.designVector.toArray(new Boolean[this.designVector.size()]);
+        Boolean[] parameters = new Boolean[this.genome.length()];
+        for (int i = 0; i < parameters.length; i++){
+            parameters[i] = Boolean.valueOf(this.genome.get(i));
+        }
+        return parameters;
+    }
+
+    /**
+     * Method returns the bit-packed genome of this design. The genome can be read by
+     * problems, but not modified.
+     * 
+     * @returns the genome of this design
+     */
+    public Genome getGenome() {
+        return this.genome;
+    }
+
+    /**
+     * Method returns a read-only List view of the design vector of this design, for 
+     * problems written against the original ArrayList<Boolean> representation
+     * 
+     * @returns unmodifiable list view of the design vector
+     */
+    public List<Boolean> getDesignVector() {
+        return this.genome.asList();
     }
     
     /**
@@ -123,17 +444,27 @@ public class Design implements Comparable<Design>, Serializable
      * evaluated
      */
     public Number getValue() {
-        return this.value;
+        return this.isEvaluated() ? Double.valueOf(this.fitness) : null;
+    }
+
+    /**
+     * Method returns the value of this design as a primitive double, or NaN if it 
+     * has not yet been evaluated
+     * 
+     * @returns the value of this design, or NaN if this design has not been evaluated
+     */
+    public double getFitness() {
+        return this.fitness;
     }
     
     /*
      * Method crosses over this design with the otherDesign with crossoverProb probability
      * for each element (uses Uniform Crossover)
      */
-    private void crossover(Design otherDesign, double crossoverProb){
-        for (int i=0; i < this.designVector.size(); i++){
-            if (this.rng.nextDouble() < crossoverProb){
-                this.designVector.set(i, otherDesign.designVector.get(i));
+    private void crossover(Design otherDesign, double crossoverProb, SplittableRandom rng){
+        for (int i=0; i < this.genome.length(); i++){
+            if (rng.nextDouble() < crossoverProb && this.genome.get(i) != otherDesign.genome.get(i)){
+                this.flip(i);
             }
         }
     }
@@ -141,15 +472,82 @@ public class Design implements Comparable<Design>, Serializable
     /*
      * Method mutates this design with mutationProb probability (uses bit flip mutation)
      */
-    private void mutate(double mutationProb){
-        for (int i=0; i < this.designVector.size(); i++){
-            if (this.rng.nextDouble() < mutationProb){
-                if (this.designVector.get(i)) {
-                    this.designVector.set(i, false);
-                } else {
-                    this.designVector.set(i, true);
-                }
+    private void mutate(double mutationProb, SplittableRandom rng){
+        for (int i=0; i < this.genome.length(); i++){
+            if (rng.nextDouble() < mutationProb){
+                this.flip(i);
+            }
+        }
+    }
+
+    /*
+     * Method crosses over this design with the otherDesign a word at a time, taking each bit
+     * from the otherDesign where a random mask biased to crossoverProb is set (uses Uniform Crossover)
+     */
+    private void crossoverWords(Design otherDesign, double crossoverProb, SplittableRandom rng){
+        long[] words = this.genome.words();
+        long[] otherWords = otherDesign.genome.words();
+        long scaled = Math.round(crossoverProb * (1L << MASK_PRECISION));
+        if (scaled <= 0)
+            return;
+        for (int i=0; i < words.length; i++){
+            long changed = (words[i] ^ otherWords[i]) & Design.biasedMask(scaled, rng);
+            words[i] ^= changed;
+            if (this.tracking)
+                this.changes[i] ^= changed;
+        }
+    }
+
+    /*
+     * Method returns a word whose bits are each set with probability scaled / 2^MASK_PRECISION.
+     * The binary digits of the probability are consumed from least to most significant: OR-ing in
+     * a uniform word for a 1 digit and AND-ing for a 0 digit halves the distance to 1 or 0
+     * respectively, so a probability of 0.5 costs a single draw.
+     */
+    private static long biasedMask(long scaled, SplittableRandom rng){
+        if (scaled >= (1L << MASK_PRECISION))
+            return -1L;
+        long mask = 0;
+        for (int b = Long.numberOfTrailingZeros(scaled); b < MASK_PRECISION; b++){
+            if (((scaled >>> b) & 1) != 0)
+                mask |= rng.nextLong();
+            else
+                mask &= rng.nextLong();
+        }
+        return mask;
+    }
+
+    /*
+     * Method mutates this design with mutationProb probability per element (uses bit flip mutation),
+     * jumping directly between flipped positions. The gap between flips is geometrically
+     * distributed, so it is sampled by inversion as floor(log(U) / log(1 - mutationProb)).
+     */
+    private void mutateSkip(double mutationProb, SplittableRandom rng){
+        int length = this.genome.length();
+        if (mutationProb <= 0 || length == 0)
+            return;
+        if (mutationProb >= 1){
+            long[] words = this.genome.words();
+            for (int i=0; i < words.length; i++){
+                words[i] = ~words[i];
+                if (this.tracking)
+                    this.changes[i] = ~this.changes[i];
             }
+            // clear the bits beyond the end of the genome
+            words[words.length - 1] &= -1L >>> -length;
+            if (this.tracking)
+                this.changes[words.length - 1] &= -1L >>> -length;
+            return;
+        }
+        double logKeep = Math.log1p(-mutationProb);
+        long i = -1;
+        while (true){
+            // 1 - nextDouble() is on (0,1], so the logarithm is finite
+            double gap = Math.floor(Math.log(1.0 - rng.nextDouble()) / logKeep);
+            i += 1 + (long) Math.min(gap, length);
+            if (i >= length)
+                break;
+            this.flip((int) i);
         }
     }
 }
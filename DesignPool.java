@@ -0,0 +1,103 @@
+package ga;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The DesignPool class keeps free lists of Designs that are no longer referenced, so that copies 
+ * can reuse them instead of allocating. A design must only be recycled once no other thread can 
+ * still reach it; designs pinned by a reader are never taken into the pool.
+ * 
+ * The free lists are striped rather than held per thread, and a thread uses the stripe its id hashes 
+ * to, so designs recycled by a thread which then ends, such as the virtual thread of a single member 
+ * step, are reused by later threads. Each stripe has its own lock, which is only tried: if another 
+ * thread holds it, a copy allocates and a recycled design is dropped, so the pool never blocks.
+ * 
+ * @author Matt Powell
+ * @version 1.0
+ */
+public class DesignPool
+{
+    private final int capacity;
+    private final int stripeMask; // number of stripes less one
+    private final Stripe[] stripes;
+
+    /**
+     * Constructs a pool which holds at most capacity free designs in each of its stripes, of which
+     * there are about twice as many as processors
+     * 
+     * @param capacity maximum number of free designs held per stripe
+     */
+    DesignPool(int capacity){
+        this.capacity = capacity;
+        int stripes = Integer.highestOneBit(Math.max(1, 2 * Runtime.getRuntime().availableProcessors() - 1)) * 2;
+        this.stripeMask = stripes - 1;
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++)
+            this.stripes[i] = new Stripe(capacity);
+    }
+
+    /**
+     * Method returns a copy of the given design, reusing a free design of the calling thread's 
+     * stripe if one is available
+     * 
+     * @param source Design to copy
+     * @return a copy of the source design
+     */
+    Design copyOf(Design source){
+        Stripe stripe = this.stripe();
+        Design d = null;
+        if (stripe.tryLock()){
+            try{
+                d = stripe.free.pollFirst();
+            } finally {
+                stripe.unlock();
+            }
+        }
+        if (d == null)
+            return new Design(source);
+        d.copyFrom(source);
+        return d;
+    }
+
+    /**
+     * Method offers a design that is no longer referenced to the free list of the calling thread's
+     * stripe. The design is dropped instead if it is pinned, the free list is full or another 
+     * thread is using the stripe.
+     * 
+     * @param d Design to recycle
+     */
+    void recycle(Design d){
+        if (d.isPinned())
+            return;
+        Stripe stripe = this.stripe();
+        if (stripe.tryLock()){
+            try{
+                if (stripe.free.size() < this.capacity)
+                    stripe.free.addFirst(d);
+            } finally {
+                stripe.unlock();
+            }
+        }
+    }
+
+    /*
+     * Method returns the stripe of the calling thread
+     */
+    private Stripe stripe(){
+        long id = Thread.currentThread().getId();
+        return this.stripes[(int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & this.stripeMask];
+    }
+
+    /*
+     * Stripe is a free list and the lock guarding it. It extends the lock, so a stripe is one object
+     */
+    private static final class Stripe extends ReentrantLock{
+        private static final long serialVersionUID = 1L;
+        final ArrayDeque<Design> free;
+
+        Stripe(int capacity){
+            this.free = new ArrayDeque<Design>(capacity);
+        }
+    }
+}
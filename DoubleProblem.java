@@ -0,0 +1,52 @@
+package ga;
+
+/**
+ * A Problem whose evaluations are primitive doubles. Implementing this interface
+ * rather than Problem directly avoids boxing each evaluation into a Number; the
+ * Number returning methods of Problem are provided in terms of the double ones.
+ * 
+ * @author Matt Powell
+ * @version 1.0
+ */
+public interface DoubleProblem extends Problem
+{
+    /**
+     * Method to enable the evaluation of the given Design on this problem
+     * 
+     * @param  d   A Design containing the design to evaluate on this problem
+     * @return the corresponding evaluation
+     */
+    double evaluateDouble(Design d);
+
+    /**
+     * Method to enable the evaluation of a batch of Designs on this problem. By 
+     * default each design is evaluated in turn with evaluateDouble(Design).
+     * 
+     * @param  designs   An array containing the designs to evaluate on this problem
+     * @return an array containing the evaluation of each design, in the same order
+     */
+    default double[] evaluateAllDouble(Design[] designs) {
+        double[] values = new double[designs.length];
+        for (int i = 0; i < designs.length; i++)
+            values[i] = this.evaluateDouble(designs[i]);
+        return values;
+    }
+
+    /** {@InheritDoc}
+     */
+    @Override
+    default Number evaluate(Design d) {
+        return this.evaluateDouble(d);
+    }
+
+    /** {@InheritDoc}
+     */
+    @Override
+    default Number[] evaluateAll(Design[] designs) {
+        double[] values = this.evaluateAllDouble(designs);
+        Number[] boxed = new Number[values.length];
+        for (int i = 0; i < values.length; i++)
+            boxed[i] = values[i];
+        return boxed;
+    }
+}
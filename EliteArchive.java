@@ -0,0 +1,665 @@
+ 
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * EliteArchive holds the elite designs found by the genetic algorithm. The designs are kept as a binary 
+ * min-heap ordered on their fitness, which is cached as a double alongside each slot, so the worst design
+ * is always at the root: checking a candidate is O(1) and replacing the worst design is O(log k).
+ * 
+ * Readers never block. A random design is sampled by picking a random slot below the published size, as the
+ * order of the heap does not matter for uniform sampling. While a sift is in progress a reader may see a design
+ * that is being moved in two slots at once; it is still an elite design, so this is harmless. Writers hold a
+ * lock only for the sift, and candidates no better than the worst design are rejected before taking it.
+ * 
+ * Parents can also be selected by tournament, rank or fitness-proportional selection, as set by a SelectionStrategy.
+ * Tournaments compare the cached fitness of the slots drawn. Fitness-proportional selection draws from an alias table
+ * in O(1), built in O(k) from a snapshot of the cached fitness taken without locking: writers make the stamp odd while
+ * they change the heap, so a reader can tell whether its snapshot is consistent, and otherwise keeps using the previous
+ * table. The table is not rebuilt on every change, but once the heap has changed k / REBUILD_FRACTION times since it
+ * was built, by one reader at a time while the others draw from the previous table, so the cost of rebuilding is
+ * amortised to O(REBUILD_FRACTION) per change. Between rebuilds a slot keeps the weight of the design it held when the
+ * table was built, so a design moved by a later sift is drawn with the weight of the slot it moved into.
+ * The fitness summary read for metrics is taken from the same kind of snapshot, so metrics never take the lock.
+ * 
+ * The archive keeps an index of the 64-bit genome hashes of the designs it holds, so a design identical to one 
+ * already held is rejected in O(1) rather than taking a second slot; otherwise, under strong selection pressure, the
+ * archive fills with copies of one genome. Two different genomes sharing a hash would be taken as duplicates, but 
+ * the chance of this is negligible. Duplicates can be allowed, in which case the index counts the copies of each
+ * genome, and the number of distinct genomes held measures the diversity of the archive.
+ * 
+ * If a DesignPool is given, designs evicted from the archive are recycled into the pool of the evicting thread.
+ * Readers then pin the design they sample and release it once used, and a design still pinned is never recycled.
+ * A worker which goes on to copy a design it offered has the design pinned as it is added, so that it cannot be
+ * evicted and recycled by another thread before the copy has been made.
+ * 
+ * @author Matt Powell
+ * @version 1.1
+ */
+public class EliteArchive
+{
+    private static final int SUMMARY_ATTEMPTS = 8; // passes summariseFitness makes before settling for an inconsistent one
+    private static final int REBUILD_FRACTION = 8; // the alias table is rebuilt after changes to 1 / REBUILD_FRACTION of its slots
+    private final int capacity;
+    private final AtomicReferenceArray<Design> slots; // heap of designs, read without locking
+    private final double[] keys; // fitness of the design in each slot, written under writeLock
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final DesignPool pool; // pool evicted designs are recycled into, or null
+    private volatile int size = 0;
+    private volatile double worst = Double.NEGATIVE_INFINITY; // fitness at the root once full
+    private final LongAdder lockWait = new LongAdder(); // nanoseconds offers have waited for writeLock
+    private volatile long stamp = 0; // incremented before and after each change to the heap, so odd while changing
+    private volatile AliasTable aliasTable; // table for fitness-proportional selection, or null until first built
+    private final AtomicBoolean rebuilding = new AtomicBoolean(); // set while a reader rebuilds the alias table
+    private final GenomeIndex index; // copies of each genome held, keyed on its hash, guarded by writeLock
+    private volatile boolean allowDuplicates = false;
+    private volatile int distinct = 0; // number of distinct genomes held
+    private final LongAdder duplicateOffers = new LongAdder(); // offers of a genome already held
+    
+    /**
+     * Constructs an empty archive which will hold at most capacity designs.
+     * 
+     * @param capacity maximum number of elite designs held
+     */
+    EliteArchive(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Constructs an empty archive which will hold at most capacity designs, recycling evicted
+     * designs into the given pool.
+     * 
+     * @param capacity maximum number of elite designs held
+     * @param pool DesignPool to recycle evicted designs into, or null to leave them to the garbage collector
+     */
+    EliteArchive(int capacity, DesignPool pool) {
+        this.capacity = capacity;
+        this.pool = pool;
+        this.slots = new AtomicReferenceArray<Design>(capacity);
+        this.keys = new double[capacity];
+        this.index = new GenomeIndex(capacity);
+    }
+
+    /**
+     * Method sets whether a design whose genome is already held may be added to the archive. 
+     * It must be called before any design is offered.
+     * 
+     * @param allowDuplicates true to add duplicates as any other design, false to reject them
+     */
+    public void setAllowDuplicates(boolean allowDuplicates){
+        this.allowDuplicates = allowDuplicates;
+    }
+    
+    /**
+     * Method to offer an evaluated design to the archive. The design is added if the archive is not yet full,
+     * or replaces the worst design held if it is better than it.
+     * 
+     * @param d evaluated Design to be offered
+     * @returns boolean true if the design was added to the archive, false otherwise
+     */
+    public boolean offer(Design d){
+        return this.offer(d, false);
+    }
+
+    /**
+     * Method to offer an evaluated design to the archive as offer(Design) does, optionally pinning it. If pin
+     * is true and the archive recycles designs, a design which is added is pinned before any other thread can
+     * see it, and must be passed to release once the caller has finished reading it, such as by copying it.
+     * 
+     * @param d evaluated Design to be offered
+     * @param pin whether to pin the design if it is added
+     * @returns boolean true if the design was added to the archive, false otherwise
+     */
+    public boolean offer(Design d, boolean pin){
+        double value = d.getFitness();
+        long hash = d.genomeHash();
+        // Reject without locking if the archive is full and the design is no better than the worst.
+        // The bound only ever rises, so a stale read can only send a candidate on to the locked check
+        if (this.size == this.capacity && value <= this.worst){
+            return false;
+        }
+        Design evicted;
+        // Only time the wait for the lock when it is held by another thread, so uncontended offers stay cheap
+        if (!this.writeLock.tryLock()){
+            long start = System.nanoTime();
+            this.writeLock.lock();
+            this.lockWait.add(System.nanoTime() - start);
+        }
+        try{
+            int n = this.size;
+            if (n == this.capacity && value <= this.keys[0]){
+                return false;
+            }
+            // The design qualifies, so check whether its genome is already held
+            if (this.index.count(hash) > 0){
+                this.duplicateOffers.increment();
+                if (!this.allowDuplicates){
+                    return false;
+                }
+            }
+            if (this.index.add(hash) == 1){
+                this.distinct++;
+            }
+            // Pin the design before it is published, so a thread evicting it later cannot recycle it until released
+            if (pin && this.pool != null){
+                d.pin();
+            }
+            if (n < this.capacity){
+                // Archive is not full, so add the design at the end of the heap and sift it up
+                this.beginChange();
+                this.siftUp(n, d, value);
+                this.size = n + 1;
+                if (n + 1 == this.capacity){
+                    this.worst = this.keys[0];
+                }
+                this.stamp++;
+                return true;
+            }
+            // Replace the worst design at the root and sift the new design down
+            this.beginChange();
+            evicted = this.slots.get(0);
+            if (this.index.remove(evicted.genomeHash()) == 0){
+                this.distinct--;
+            }
+            this.siftDown(d, value);
+            this.worst = this.keys[0];
+            this.stamp++;
+        } finally {
+            this.writeLock.unlock();
+        }
+        // The evicted design is no longer in any slot, so once no reader has it pinned it can be reused
+        if (this.pool != null){
+            this.pool.recycle(evicted);
+        }
+        return true;
+    }
+
+    /**
+     * Method returns a design drawn uniformly at random from the archive, or null if the archive 
+     * is empty. This method never blocks. If the archive recycles designs, the design returned is 
+     * pinned and must be passed to release once the caller has finished reading it.
+     * 
+     * @returns Design random elite design
+     */
+    public Design getRandom(){
+        return this.getRandom(null);
+    }
+
+    /**
+     * Method returns a design drawn uniformly at random from the archive as getRandom() does, choosing
+     * the slot with the given stream, so that a seeded worker draws the same slots every run.
+     * 
+     * @param rng stream of random numbers, or null to use the stream of the calling thread
+     * @returns Design random elite design
+     */
+    public Design getRandom(SplittableRandom rng){
+        return this.select(SelectionStrategy.UNIFORM, 1, rng);
+    }
+
+    /**
+     * Method returns a design selected from the archive with the given strategy, or null if the archive is 
+     * empty. Like getRandom, this method never blocks, and a design returned by an archive that recycles 
+     * designs must be passed to release.
+     * 
+     * @param strategy SelectionStrategy to select with
+     * @param tournamentSize number of designs drawn for each tournament, used by SelectionStrategy.TOURNAMENT
+     * @param rng stream of random numbers, or null to use the stream of the calling thread
+     * @returns Design selected elite design
+     */
+    public Design select(SelectionStrategy strategy, int tournamentSize, SplittableRandom rng){
+        while (true){
+            int n = this.size;
+            if (n == 0){
+                return null;
+            }
+            int i;
+            switch (strategy){
+                case TOURNAMENT:
+                    i = this.tournament(n, tournamentSize, rng);
+                    break;
+                case RANK:
+                    i = this.tournament(n, 2, rng);
+                    break;
+                case ROULETTE:
+                    i = this.spin(n, rng);
+                    break;
+                default:
+                    i = EliteArchive.nextInt(rng, n);
+            }
+            Design d = this.slots.get(i);
+            if (this.pool == null){
+                return d;
+            }
+            // Pin the design, then check it is still in the slot. Either the check sees an eviction
+            // that happened first, or the evicting thread sees the pin and does not recycle the design
+            d.pin();
+            if (this.slots.get(i) == d){
+                return d;
+            }
+            d.unpin();
+        }
+    }
+
+    /*
+     * Method returns the slot of the best of k slots drawn at random from the first n. The cached fitness is read
+     * without locking, so a slot being sifted may be judged on the fitness of its neighbour, which is harmless
+     */
+    private int tournament(int n, int k, SplittableRandom rng){
+        int best = EliteArchive.nextInt(rng, n);
+        for (int j = 1; j < k; j++){
+            int i = EliteArchive.nextInt(rng, n);
+            if (this.keys[i] > this.keys[best]){
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /*
+     * Method returns a slot drawn from the alias table, rebuilding the table first if the heap has changed enough
+     * since it was built and no other reader is rebuilding it. If no consistent snapshot can be taken the previous
+     * table is used, and if there is none a slot is drawn uniformly
+     */
+    private int spin(int n, SplittableRandom rng){
+        AliasTable table = this.aliasTable;
+        if (this.isStale(table) && this.rebuilding.compareAndSet(false, true)){
+            try{
+                // Another reader may have published a table since this one was read
+                table = this.aliasTable;
+                if (this.isStale(table)){
+                    AliasTable built = this.buildAliasTable();
+                    if (built != null){
+                        this.aliasTable = table = built;
+                    }
+                }
+            } finally {
+                this.rebuilding.set(false);
+            }
+        }
+        if (table == null){
+            return EliteArchive.nextInt(rng, n);
+        }
+        int i = EliteArchive.nextInt(rng, table.alias.length);
+        double u = rng != null ? rng.nextDouble() : ThreadLocalRandom.current().nextDouble();
+        // The archive only grows, so every slot of the table is below the current size
+        return u < table.probability[i] ? i : table.alias[i];
+    }
+
+    /*
+     * Method returns whether the alias table is due to be rebuilt: if there is none yet, or the heap has changed
+     * at least once for every REBUILD_FRACTION slots of the table since it was built
+     */
+    private boolean isStale(AliasTable table){
+        if (table == null){
+            return true;
+        }
+        // Each change to the heap adds 2 to the stamp
+        long changes = (this.stamp - table.stamp) / 2;
+        return changes >= Math.max(1, table.alias.length / REBUILD_FRACTION);
+    }
+
+    /*
+     * Method takes a snapshot of the cached fitness of the slots and builds an alias table from it, using Vose's 
+     * method, or returns null if a writer changed the heap while the snapshot was taken
+     */
+    private AliasTable buildAliasTable(){
+        long before = this.stamp;
+        if ((before & 1) != 0){
+            return null;
+        }
+        int n = this.size;
+        double[] weights = Arrays.copyOf(this.keys, n);
+        // Order the reads of the snapshot before the second read of the stamp
+        VarHandle.acquireFence();
+        if (this.stamp != before || n == 0){
+            return null;
+        }
+        // Weigh each design by its fitness above the worst finite fitness, plus a share of the spread so that
+        // the worst can be selected; a design with a non-finite fitness is never selected
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double w: weights){
+            if (Double.isFinite(w)){
+                min = Math.min(min, w);
+                max = Math.max(max, w);
+            }
+        }
+        double floor = max > min ? (max - min) / n : 1;
+        double total = 0;
+        for (int i = 0; i < n; i++){
+            weights[i] = Double.isFinite(weights[i]) ? weights[i] - min + floor : 0;
+            total += weights[i];
+        }
+        if (!(total > 0) || Double.isInfinite(total)){
+            Arrays.fill(weights, 1);
+            total = n;
+        }
+
+        // Split the slots into those below and above the mean weight, then fill each small column from a large one
+        double[] probability = new double[n];
+        int[] alias = new int[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smalls = 0;
+        int larges = 0;
+        for (int i = 0; i < n; i++){
+            weights[i] = weights[i] * n / total;
+            if (weights[i] < 1){
+                small[smalls++] = i;
+            } else {
+                large[larges++] = i;
+            }
+        }
+        while (smalls > 0 && larges > 0){
+            int s = small[--smalls];
+            int l = large[--larges];
+            probability[s] = weights[s];
+            alias[s] = l;
+            weights[l] = weights[l] + weights[s] - 1;
+            if (weights[l] < 1){
+                small[smalls++] = l;
+            } else {
+                large[larges++] = l;
+            }
+        }
+        // Columns left over are full, up to rounding error
+        while (larges > 0){
+            probability[large[--larges]] = 1;
+        }
+        while (smalls > 0){
+            probability[small[--smalls]] = 1;
+        }
+        return new AliasTable(before, probability, alias);
+    }
+
+    /*
+     * Method returns a random int on [0,n) from the given stream, or from the stream of the calling thread if null
+     */
+    private static int nextInt(SplittableRandom rng, int n){
+        return rng != null ? rng.nextInt(n) : ThreadLocalRandom.current().nextInt(n);
+    }
+
+    /**
+     * Method releases a design returned by getRandom, or added pinned by offer, once the caller has 
+     * finished reading it.
+     * 
+     * @param d Design returned by getRandom or pinned by offer
+     */
+    public void release(Design d){
+        if (this.pool != null){
+            d.unpin();
+        }
+    }
+
+    /**
+     * Method returns the number of designs currently held.
+     * 
+     * @returns size of the archive
+     */
+    public int size(){
+        return this.size;
+    }
+
+    /**
+     * Method returns the number of distinct genomes held, which is the size of the archive unless 
+     * duplicates are allowed.
+     * 
+     * @returns number of distinct genomes
+     */
+    public int distinct(){
+        return this.distinct;
+    }
+
+    /**
+     * Method returns the number of designs offered which qualified for the archive but whose genome was
+     * already held. Unless duplicates are allowed, each of them was rejected.
+     * 
+     * @returns number of duplicate offers
+     */
+    public long getDuplicateOffers(){
+        return this.duplicateOffers.sum();
+    }
+
+    /**
+     * Method returns the total time offers have waited for another thread to finish with the archive.
+     * 
+     * @returns time in nanoseconds
+     */
+    public long getLockWait(){
+        return this.lockWait.sum();
+    }
+
+    /**
+     * Method returns the best, mean and worst fitness of the designs currently held, in that order, 
+     * or an empty array if the archive is empty. This method never blocks, so sampling the archive for
+     * metrics does not hold up offers: the cached fitness is read in one pass without locking, and read
+     * again if a writer changed the heap meanwhile. If writers keep changing it, the last pass is used,
+     * which may count a design being sifted twice, so is approximate.
+     * 
+     * @returns double[] best, mean and worst fitness
+     */
+    public double[] summariseFitness(){
+        for (int attempt = 1; ; attempt++){
+            long before = this.stamp;
+            int n = this.size;
+            if (n == 0){
+                return new double[0];
+            }
+            // The root of the heap is the worst design
+            double worst = this.keys[0];
+            double best = worst;
+            double sum = 0;
+            for (int i = 0; i < n; i++){
+                double key = this.keys[i];
+                best = Math.max(best, key);
+                sum += key;
+            }
+            // Order the reads of the snapshot before the second read of the stamp
+            VarHandle.acquireFence();
+            if (((before & 1) == 0 && this.stamp == before) || attempt == SUMMARY_ATTEMPTS){
+                return new double[] {best, sum / n, worst};
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Method returns a copy of the designs currently held, which later inserts will not affect.
+     * 
+     * @returns ArrayList<Design> copy of the elite designs
+     */
+    public ArrayList<Design> toList(){
+        this.writeLock.lock();
+        try{
+            ArrayList<Design> list = new ArrayList<Design>(this.size);
+            for (int i = 0; i < this.size; i++){
+                list.add(this.slots.get(i));
+            }
+            return list;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Method returns copies of the best designs currently held, best first. The copies are made while 
+     * inserts are held off, so they cannot be affected by designs being recycled.
+     * 
+     * @param count maximum number of designs to return
+     * @returns ArrayList<Design> copies of up to count of the best elite designs
+     */
+    public ArrayList<Design> copyBest(int count){
+        this.writeLock.lock();
+        try{
+            int n = this.size;
+            // Order the slots by their cached fitness, best first
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++){
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(this.keys[b], this.keys[a]));
+            ArrayList<Design> best = new ArrayList<Design>(Math.min(count, n));
+            for (int i = 0; i < Math.min(count, n); i++){
+                best.add(new Design(this.slots.get(order[i])));
+            }
+            return best;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /*
+     * Method makes the stamp odd before the heap is changed. A volatile write only orders the stores before it, 
+     * so a fence keeps the stores of the change from becoming visible before the odd stamp, as in a seqlock; 
+     * otherwise a reader could see part of the change with an even stamp and take its snapshot as consistent.
+     * Called with writeLock held.
+     */
+    private void beginChange(){
+        this.stamp++;
+        VarHandle.storeStoreFence();
+    }
+
+    /*
+     * Method places the design with the given fitness at slot i, moving parents down until the heap 
+     * is ordered. Called with writeLock held.
+     */
+    private void siftUp(int i, Design d, double value){
+        while (i > 0){
+            int parent = (i - 1) >>> 1;
+            if (this.keys[parent] <= value){
+                break;
+            }
+            this.keys[i] = this.keys[parent];
+            this.slots.set(i, this.slots.get(parent));
+            i = parent;
+        }
+        this.keys[i] = value;
+        this.slots.set(i, d);
+    }
+
+    /*
+     * Method overwrites the root with the design with the given fitness, moving smaller children up 
+     * until the heap is ordered. Called with writeLock held.
+     */
+    private void siftDown(Design d, double value){
+        int n = this.size;
+        int i = 0;
+        while (true){
+            int child = 2 * i + 1;
+            if (child >= n){
+                break;
+            }
+            if (child + 1 < n && this.keys[child + 1] < this.keys[child]){
+                child++;
+            }
+            if (this.keys[child] >= value){
+                break;
+            }
+            this.keys[i] = this.keys[child];
+            this.slots.set(i, this.slots.get(child));
+            i = child;
+        }
+        this.keys[i] = value;
+        this.slots.set(i, d);
+    }
+
+    /**
+     * GenomeIndex counts the copies of each genome held by the archive, keyed on the 64-bit hash of the genome,
+     * in an open-addressing table with linear probing, so lookups need neither boxing nor allocation. The table 
+     * is at least twice the capacity of the archive, so probes stay short. A hash of 0 marks an empty entry, so 
+     * it is stored as 1 instead.
+     */
+    private static final class GenomeIndex{
+        private final long[] hashes;
+        private final int[] counts;
+        private final int mask;
+
+        GenomeIndex(int capacity){
+            int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2;
+            this.hashes = new long[size];
+            this.counts = new int[size];
+            this.mask = size - 1;
+        }
+
+        /*
+         * Method returns the entry holding the given hash, or the empty entry where it would be added
+         */
+        private int find(long hash){
+            int i = (int) (hash ^ (hash >>> 32)) & this.mask;
+            while (this.hashes[i] != 0 && this.hashes[i] != hash){
+                i = (i + 1) & this.mask;
+            }
+            return i;
+        }
+
+        /*
+         * Method returns the number of copies held of the genome with the given hash
+         */
+        int count(long hash){
+            return this.counts[this.find(hash == 0 ? 1 : hash)];
+        }
+
+        /*
+         * Method counts another copy of the genome with the given hash, and returns the number now held
+         */
+        int add(long hash){
+            hash = hash == 0 ? 1 : hash;
+            int i = this.find(hash);
+            this.hashes[i] = hash;
+            return ++this.counts[i];
+        }
+
+        /*
+         * Method removes a copy of the genome with the given hash, and returns the number still held, or -1 if
+         * none was held. Once none are held the entry is emptied, and later entries of its probe sequence are 
+         * shifted back to fill it
+         */
+        int remove(long hash){
+            int i = this.find(hash == 0 ? 1 : hash);
+            if (this.hashes[i] == 0){
+                return -1;
+            }
+            if (--this.counts[i] > 0){
+                return this.counts[i];
+            }
+            int gap = i;
+            for (int j = (gap + 1) & this.mask; this.hashes[j] != 0; j = (j + 1) & this.mask){
+                int home = (int) (this.hashes[j] ^ (this.hashes[j] >>> 32)) & this.mask;
+                // Move the entry into the gap unless its home lies cyclically after the gap, up to j
+                if (((j - home) & this.mask) >= ((j - gap) & this.mask)){
+                    this.hashes[gap] = this.hashes[j];
+                    this.counts[gap] = this.counts[j];
+                    gap = j;
+                }
+            }
+            this.hashes[gap] = 0;
+            this.counts[gap] = 0;
+            return 0;
+        }
+    }
+
+    /**
+     * AliasTable holds the columns of Walker's alias method for the slots of the archive at one stamp: a slot is 
+     * sampled by drawing a column uniformly, then keeping it with its probability or taking its alias.
+     */
+    private static final class AliasTable{
+        final long stamp; // stamp of the archive the table was built from
+        final double[] probability;
+        final int[] alias;
+
+        AliasTable(long stamp, double[] probability, int[] alias){
+            this.stamp = stamp;
+            this.probability = probability;
+            this.alias = alias;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+ 
+
+/**
+ * EngineMode sets the form of genetic algorithm run by the MultiThreadedGeneticAlgorithm. Every mode shares the same
+ * problems, designs and elite designs archive, and differs only in how the population is evaluated and bred.
+ * 
+ * @author Matt Powell
+ * @version 1.0
+ */
+public enum EngineMode
+{
+    /**
+     * Members evaluate and evolve their designs at their own pace, each crossing its designs over with elite parents
+     */
+    ASYNC,
+
+    /**
+     * The whole population is evaluated in parallel, then the next generation is bred in parallel, by a 
+     * GenerationalEngine
+     */
+    GENERATIONAL,
+
+    /**
+     * The elite designs archive is the population: members breed each child from two parents selected from the 
+     * archive, and the child replaces the worst design of the archive if it is better
+     */
+    STEADY
+}
@@ -0,0 +1,255 @@
+ 
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * EvaluationBudget hands out the function evaluations of a run. Rather than counting each evaluation on a shared
+ * counter, each worker holds a Lease and takes blocks of evaluations from an atomic pool, so the hot path only touches
+ * the lease. Leases shrink as the pool empties, so the evaluations left are spread over the leaseholders, and a
+ * leaseholder only stops once its own lease is used up. Every evaluation handed out is therefore made, and exactly
+ * the total number of evaluations is made.
+ * 
+ * Evaluations are reported as completed when a lease next takes a block or is released, and the termination criteria
+ * is met once all of them have been reported, or the budget is stopped early, and threads can wait for it on a latch
+ * rather than polling. It is also met once the last lease is released, as any evaluations it returns to the pool
+ * would never be drawn, so a run whose workers have all stopped, such as after an error, does not wait forever.
+ * 
+ * @author Matt Powell
+ * @version 1.0
+ */
+public class EvaluationBudget
+{
+    private static final int MAX_LEASE = 64; // largest block of evaluations taken at once
+    private final long total;
+    private final AtomicLong unleased; // evaluations not yet taken by any lease
+    private final AtomicLong completed = new AtomicLong(); // evaluations reported as made
+    private final AtomicInteger leaseholders = new AtomicInteger(); // leases created and not yet released
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet(); // leases not yet released, read by getMade
+    private volatile boolean exhausted = false;
+    private final CountDownLatch finished = new CountDownLatch(1); // released once exhausted is set
+
+    /**
+     * Constructs a budget of the given number of evaluations.
+     * 
+     * @param total number of function evaluations to be made
+     */
+    EvaluationBudget(long total) {
+        this.total = total;
+        this.unleased = new AtomicLong(total);
+        if (total <= 0){
+            this.finish();
+        }
+    }
+
+    /**
+     * Method creates a lease for a worker to take evaluations through. Each worker must use its own lease,
+     * and every lease of a run must be created before any is released.
+     * 
+     * @returns Lease new, empty lease
+     */
+    public Lease newLease(){
+        this.leaseholders.incrementAndGet();
+        Lease lease = new Lease();
+        this.leases.add(lease);
+        return lease;
+    }
+
+    /**
+     * Method counts evaluations made by an earlier run, resumed from a checkpoint, as already completed. 
+     * It must be called before any lease is created.
+     * 
+     * @param made number of evaluations made before the checkpoint
+     */
+    public void resume(long made){
+        made = Math.min(made, this.total);
+        this.unleased.set(this.total - made);
+        this.completed.set(made);
+        if (made >= this.total){
+            this.finish();
+        }
+    }
+
+    /**
+     * Method stops the budget early, so the termination criteria is met and workers stop at their next step.
+     */
+    public void stop(){
+        this.finish();
+    }
+
+    /**
+     * Method waits until the termination criteria has been met.
+     * 
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        this.finished.await();
+    }
+
+    /**
+     * Method waits up to the given time for the termination criteria to be met.
+     * 
+     * @param timeout maximum time to wait, in milliseconds
+     * @returns true if the termination criteria has been met
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean await(long timeout) throws InterruptedException {
+        return this.finished.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Method returns whether every evaluation of the budget has been made and reported.
+     * 
+     * @returns boolean true if the termination criteria has been met
+     */
+    public boolean isExhausted(){
+        return this.exhausted;
+    }
+
+    /**
+     * Method returns the number of evaluations reported as made so far. Evaluations still held
+     * in leases are reported when the lease next takes a block or is released.
+     * 
+     * @returns number of evaluations completed
+     */
+    public long getCompleted(){
+        return this.completed.get();
+    }
+
+    /**
+     * Method returns the number of evaluations made so far, including those made through leases but not yet
+     * reported, as a checkpoint must save. It does not wait for the leases, so an evaluation being reported 
+     * as it is called may be counted twice, but one already made is never missed, so a run resumed from the 
+     * count never makes more than the total.
+     * 
+     * @returns number of evaluations made
+     */
+    public long getMade(){
+        long made = this.completed.get();
+        for (Lease lease: this.leases){
+            made += lease.unreported;
+        }
+        return Math.min(made, this.total);
+    }
+
+    /**
+     * Method returns the total number of evaluations of this budget.
+     * 
+     * @returns total number of evaluations
+     */
+    public long getTotal(){
+        return this.total;
+    }
+
+    /*
+     * Method takes a block of evaluations from the pool, sized so that the evaluations left are shared between the
+     * leaseholders, and returns the number taken, which is 0 once the pool is empty
+     */
+    private long take(){
+        while (true){
+            long available = this.unleased.get();
+            if (available == 0){
+                return 0;
+            }
+            long share = Math.max(1, available / Math.max(1, this.leaseholders.get()));
+            long block = Math.min(Math.min(MAX_LEASE, share), available);
+            if (this.unleased.compareAndSet(available, available - block)){
+                return block;
+            }
+        }
+    }
+
+    /*
+     * Method reports evaluations made by a lease, and returns evaluations it did not use to the pool
+     */
+    private void report(long used, long unused){
+        if (unused > 0){
+            this.unleased.addAndGet(unused);
+        }
+        if (used > 0 && this.completed.addAndGet(used) >= this.total){
+            this.finish();
+        }
+    }
+
+    /*
+     * Method counts a lease as released, and meets the termination criteria once none are left to draw on the pool
+     */
+    private void leaseReleased(){
+        if (this.leaseholders.decrementAndGet() == 0){
+            this.finish();
+        }
+    }
+
+    /*
+     * Method marks the termination criteria as met and releases the threads waiting for it
+     */
+    private void finish(){
+        this.exhausted = true;
+        this.finished.countDown();
+    }
+
+    /**
+     * Lease holds a block of evaluations taken from the budget by one worker. It is not thread safe, 
+     * and must only be used by one worker at a time.
+     */
+    public class Lease{
+        private long remaining = 0; // evaluations held and not yet acquired
+        private long used = 0; // evaluations acquired before the current call, so already made
+        private long pending = 0; // evaluations acquired by the current call, about to be made
+        private boolean released = false; // whether the lease has been released, so no longer counts as a leaseholder
+        private volatile long unreported = 0; // evaluations made and not yet reported, published for getMade
+
+        /**
+         * Method acquires up to n evaluations, taking further blocks from the budget as needed. The 
+         * evaluations acquired by the previous call must have been made before calling this method.
+         * 
+         * @param n number of evaluations wanted
+         * @returns int number of evaluations acquired, which is only less than n once the budget is empty
+         */
+        public int acquire(int n){
+            this.used += this.pending;
+            this.pending = 0;
+            // Publish the evaluations made before reporting them, so getMade may count them twice but never misses them
+            this.unreported = this.used;
+            while (this.pending < n){
+                if (this.remaining == 0){
+                    // Report the evaluations made before taking the next block
+                    EvaluationBudget.this.report(this.used, 0);
+                    this.used = 0;
+                    this.unreported = 0;
+                    this.remaining = EvaluationBudget.this.take();
+                    if (this.remaining == 0){
+                        break;
+                    }
+                }
+                long granted = Math.min(n - this.pending, this.remaining);
+                this.remaining -= granted;
+                this.pending += granted;
+            }
+            return (int) this.pending;
+        }
+
+        /**
+         * Method reports the evaluations made through this lease, and returns the evaluations it holds but 
+         * has not used to the budget. The evaluations acquired by the last call must have been made. Releasing
+         * the last lease of the budget meets the termination criteria. Releasing a lease again has no effect.
+         */
+        public void release(){
+            EvaluationBudget.this.report(this.used + this.pending, this.remaining);
+            this.used = 0;
+            this.pending = 0;
+            this.remaining = 0;
+            this.unreported = 0;
+            if (!this.released){
+                EvaluationBudget.this.leases.remove(this);
+                this.released = true;
+                EvaluationBudget.this.leaseReleased();
+            }
+        }
+    }
+}
@@ -0,0 +1,379 @@
+ 
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * EvaluationServer is the coordinator side of distributed evaluation. It listens for EvaluationWorker processes, which
+ * may run on this machine or others, and sends them batches of designs to evaluate, so that evaluation is spread over 
+ * several JVMs while the elite designs archive and the evaluation budget stay with the coordinator.
+ * 
+ * Batches wait in a shared queue, and each connected worker takes the next batch whenever it has fewer than 
+ * IN_FLIGHT batches outstanding, so faster workers take more of the work. If a worker is lost, every batch it had 
+ * not answered is put back at the front of the queue for another worker. A batch whose workers are lost MAX_LOSSES 
+ * times, such as one whose designs crash the Problem, is failed rather than re-issued, so it cannot take down every
+ * worker in turn and leave the run waiting; the member evaluating it gets an IllegalStateException, which stops the 
+ * run. If no worker is connected, batches wait until one connects.
+ * 
+ * Closing the server ends the workers, and members still waiting on a batch are interrupted.
+ * 
+ * Workers are not authenticated, so the server listens on the loopback address unless another is given, and only
+ * workers on this machine can connect. Each worker's handshake is read on the thread of its own connection, and must
+ * arrive within HANDSHAKE_TIMEOUT, so a client which connects and sends nothing cannot hold up other workers.
+ * 
+ * Members block while their batch is evaluated remotely, so the execution engine should be given enough threads 
+ * (or virtual threads) to keep every worker busy.
+ * 
+ * The protocol is a stream of big-endian values. On connecting a worker sends MAGIC, VERSION and the name of its
+ * Problem class. A batch is sent as its id, the number of designs, the genome length and then the packed words of 
+ * each genome; the worker answers with the batch id, the number of designs and the fitness of each.
+ * 
+ * @author Matt Powell
+ * @version 1.0
+ */
+public class EvaluationServer
+{
+    static final int MAGIC = 0x47414557; // "GAEW"
+    static final int VERSION = 1;
+    private static final int IN_FLIGHT = 2; // batches outstanding per worker
+    private static final int HANDSHAKE_TIMEOUT = 10000; // milliseconds a worker has to send its handshake
+    private static final int MAX_LOSSES = 3; // workers a batch may be lost with before it is failed
+    private final ServerSocket server;
+    private final String problemName;
+    private final LinkedBlockingDeque<Batch> queue = new LinkedBlockingDeque<Batch>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+    
+    /**
+     * Constructs a server listening on the given address and port for workers evaluating the named problem.
+     * 
+     * @param address host name or IP address to listen on, or null for the loopback address
+     * @param port TCP port to listen on
+     * @param problemName fully qualified name of the Problem class workers must evaluate
+     * @throws IOException if the address cannot be resolved or the port cannot be listened on
+     */
+    EvaluationServer(String address, int port, String problemName) throws IOException {
+        InetAddress bind = address == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(address);
+        this.server = new ServerSocket(port, 0, bind);
+        this.problemName = problemName;
+        Thread acceptor = new Thread(this::acceptWorkers, "EvaluationServer-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Method returns the address this server is listening on.
+     * 
+     * @returns String giving the IP address
+     */
+    public String getAddress(){
+        return this.server.getInetAddress().getHostAddress();
+    }
+
+    /**
+     * Method returns the port this server is listening on.
+     * 
+     * @returns TCP port
+     */
+    public int getPort(){
+        return this.server.getLocalPort();
+    }
+
+    /**
+     * Method evaluates the first count designs of the array that have not yet been evaluated, on the 
+     * connected workers, and waits for their fitness to be returned.
+     * 
+     * @param designs array containing the designs to evaluate
+     * @param count number of designs, from the start of the array, to evaluate
+     * @throws InterruptedException if interrupted while waiting for the results, or the server is closed
+     * @throws IllegalStateException if the batch was lost with MAX_LOSSES workers
+     */
+    public void evaluateAll(Design[] designs, int count) throws InterruptedException {
+        int n = 0;
+        Design[] unevaluated = new Design[count];
+        for (int i = 0; i < count; i++){
+            if (!designs[i].isEvaluated()){
+                unevaluated[n++] = designs[i];
+            }
+        }
+        if (n == 0){
+            return;
+        }
+        Batch batch = new Batch(this.nextId.getAndIncrement(), unevaluated, n);
+        this.queue.addLast(batch);
+        if (this.closed){
+            this.abandonQueued();
+        }
+        batch.done.await();
+        if (batch.abandoned){
+            throw new InterruptedException("The evaluation server has been closed");
+        }
+        if (batch.failed){
+            throw new IllegalStateException("A batch of " + n + " designs was lost with " + MAX_LOSSES 
+                + " evaluation workers, so its designs may crash the problem");
+        }
+        for (int i = 0; i < n; i++){
+            unevaluated[i].setFitness(batch.results[i]);
+        }
+    }
+
+    /**
+     * Method stops accepting workers and closes the connections to them, which ends the worker processes.
+     */
+    public void close(){
+        this.closed = true;
+        try{
+            this.server.close();
+        } catch (IOException e){
+            // Already closed
+        }
+        for (Connection connection: this.connections){
+            connection.close();
+        }
+        this.abandonQueued();
+    }
+
+    /*
+     * Method releases the members waiting on every batch in the queue, once the server is closed
+     */
+    private void abandonQueued(){
+        Batch batch;
+        while ((batch = this.queue.pollFirst()) != null){
+            batch.abandon();
+        }
+    }
+
+    /*
+     * Method accepts workers until the server is closed, starting a connection for each, which reads the 
+     * worker's handshake on its own thread
+     */
+    private void acceptWorkers(){
+        while (!this.closed){
+            try{
+                Socket socket = this.server.accept();
+                Connection connection = new Connection(socket);
+                this.connections.add(connection);
+                connection.start();
+            } catch (IOException e){
+                if (!this.closed){
+                    System.out.println("Error accepting an evaluation worker: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /*
+     * Batch is a group of designs sent to a worker together, and the latch its member waits on for the results
+     */
+    private static class Batch{
+        final long id;
+        final Design[] designs;
+        final int count;
+        final double[] results;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean abandoned = false; // whether the server closed before the batch was evaluated
+        volatile boolean failed = false; // whether the batch was lost with too many workers to re-issue
+        int losses = 0; // workers lost while evaluating the batch, changed only by the connection holding it
+
+        Batch(long id, Design[] designs, int count){
+            this.id = id;
+            this.designs = designs;
+            this.count = count;
+            this.results = new double[count];
+        }
+
+        void abandon(){
+            this.abandoned = true;
+            this.done.countDown();
+        }
+
+        void fail(){
+            this.failed = true;
+            this.done.countDown();
+        }
+    }
+
+    /*
+     * Connection to a single worker. A receiver thread reads the worker's handshake, then starts a sender thread, which
+     * takes batches from the queue and writes them while fewer than IN_FLIGHT are outstanding, and reads the results. 
+     * When either fails the connection is closed and its outstanding batches are put back on the queue.
+     */
+    private class Connection{
+        private final Socket socket;
+        private final ConcurrentHashMap<Long, Batch> outstanding = new ConcurrentHashMap<Long, Batch>();
+        private final Semaphore slots = new Semaphore(IN_FLIGHT);
+        private DataInputStream in;
+        private DataOutputStream out;
+        private volatile boolean lost = false;
+        private volatile Thread sender; // started once the handshake has been read
+
+        Connection(Socket socket){
+            this.socket = socket;
+        }
+
+        void start(){
+            Thread receiver = new Thread(this::receive, "EvaluationServer-receive-" + this.socket.getRemoteSocketAddress());
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+
+        /*
+         * Method reads and checks the worker's handshake, which must arrive within HANDSHAKE_TIMEOUT, returning
+         * false if the worker was rejected
+         */
+        private boolean handshake(){
+            try{
+                this.socket.setTcpNoDelay(true);
+                this.socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+                this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+                this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+                // Check the worker speaks this protocol and evaluates the same problem
+                if (this.in.readInt() != MAGIC || this.in.readInt() != VERSION){
+                    throw new IOException("worker does not use evaluation protocol version " + VERSION);
+                }
+                String name = this.in.readUTF();
+                if (!name.equals(EvaluationServer.this.problemName)){
+                    throw new IOException("worker evaluates " + name + " rather than " + EvaluationServer.this.problemName);
+                }
+                // Evaluating a batch may take any time, so results are waited for without a timeout
+                this.socket.setSoTimeout(0);
+            } catch (IOException e){
+                if (!EvaluationServer.this.closed){
+                    String reason = e instanceof EOFException ? "closed the connection during the handshake" : e.getMessage();
+                    System.out.println("Rejected evaluation worker " + this.socket.getRemoteSocketAddress() + ": " + reason);
+                }
+                this.close();
+                EvaluationServer.this.connections.remove(this);
+                return false;
+            }
+            return true;
+        }
+
+        private void send(){
+            try{
+                while (!this.lost){
+                    this.slots.acquire();
+                    Batch batch = EvaluationServer.this.queue.takeFirst();
+                    this.outstanding.put(batch.id, batch);
+                    if (this.lost){
+                        // The connection failed while waiting, so leave the batch for another worker
+                        this.requeue();
+                        return;
+                    }
+                    int length = batch.designs[0].getGenome().length();
+                    this.out.writeLong(batch.id);
+                    this.out.writeInt(batch.count);
+                    this.out.writeInt(length);
+                    for (int i = 0; i < batch.count; i++){
+                        for (long word: batch.designs[i].getGenome().words()){
+                            this.out.writeLong(word);
+                        }
+                    }
+                    this.out.flush();
+                }
+            } catch (IOException e){
+                this.fail(e);
+            } catch (InterruptedException e){
+                this.fail(null);
+            }
+        }
+
+        private void receive(){
+            if (!this.handshake()){
+                return;
+            }
+            this.sender = new Thread(this::send, "EvaluationServer-send-" + this.socket.getRemoteSocketAddress());
+            this.sender.setDaemon(true);
+            this.sender.start();
+            if (EvaluationServer.this.closed){
+                // The server closed during the handshake, before there was a sender to interrupt
+                this.sender.interrupt();
+            }
+            try{
+                while (!this.lost){
+                    long id = this.in.readLong();
+                    int count = this.in.readInt();
+                    Batch batch = this.outstanding.remove(id);
+                    if (batch == null || batch.count != count){
+                        throw new IOException("worker answered a batch it was not sent");
+                    }
+                    for (int i = 0; i < count; i++){
+                        batch.results[i] = this.in.readDouble();
+                    }
+                    batch.done.countDown();
+                    this.slots.release();
+                }
+            } catch (IOException e){
+                this.fail(e);
+            }
+        }
+
+        /*
+         * Method closes this connection and returns its outstanding batches to the queue
+         */
+        private void fail(IOException e){
+            if (this.lost){
+                return;
+            }
+            this.lost = true;
+            if (!EvaluationServer.this.closed){
+                System.out.println("Lost evaluation worker " + this.socket.getRemoteSocketAddress() 
+                    + (e == null ? "" : ": " + e.getMessage()) + ", returning " + this.outstanding.size() + " batches.");
+            }
+            this.close();
+            EvaluationServer.this.connections.remove(this);
+            this.requeue();
+            // Wake the sender if it is waiting for a slot, so it can see the connection is lost
+            this.slots.release(IN_FLIGHT);
+        }
+
+        /*
+         * Method puts every batch still outstanding on this connection back at the front of the queue, or 
+         * abandons it once the server is closed, or fails it once it has been lost with MAX_LOSSES workers. 
+         * Removing each batch from the map first ensures a batch is never both answered and re-issued.
+         */
+        private void requeue(){
+            for (Long id: this.outstanding.keySet()){
+                Batch batch = this.outstanding.remove(id);
+                if (batch != null){
+                    if (EvaluationServer.this.closed){
+                        batch.abandon();
+                    } else if (++batch.losses >= MAX_LOSSES){
+                        System.out.println("Failing a batch of " + batch.count + " designs lost with " + batch.losses 
+                            + " evaluation workers.");
+                        batch.fail();
+                    } else {
+                        EvaluationServer.this.queue.addFirst(batch);
+                    }
+                }
+            }
+        }
+
+        private void close(){
+            try{
+                this.socket.close();
+            } catch (IOException e){
+                // Already closed
+            }
+            // Wake the sender if it is waiting for a batch, so it stops
+            if (this.sender != null && EvaluationServer.this.closed){
+                this.sender.interrupt();
+            }
+        }
+    }
+}
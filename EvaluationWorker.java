@@ -0,0 +1,84 @@
+ 
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+
+
+/**
+ * EvaluationWorker is the worker side of distributed evaluation. It instantiates the Problem named on the command 
+ * line, connects to the EvaluationServer of a MultiThreadedGeneticAlgorithm run started with --serve, and evaluates
+ * the batches of designs it is sent until the coordinator closes the connection.
+ * 
+ * Usage: java ga.EvaluationWorker problemName host port
+ * 
+ * The coordinator only accepts workers on its own machine unless it was started with --serve=address:port.
+ * 
+ * @author Matt Powell
+ * @version 1.0
+ */
+public class EvaluationWorker
+{
+    public static void main(String[] args){
+        if (args.length != 3){
+            MultiThreadedGeneticAlgorithm.error("Please enter the problem name, and the host and port of the coordinator.");
+        }
+        Problem problem = null;
+        int port = 0;
+        try{
+            problem = Helper.getProblem(args[0]);
+            port = Integer.parseInt(args[2]);
+        } catch (GAInitiationException e){
+            MultiThreadedGeneticAlgorithm.error(e.toString());
+        } catch (NumberFormatException e){
+            MultiThreadedGeneticAlgorithm.error(args[2] + " is not an integer.");
+        }
+
+        try (Socket socket = new Socket(args[1], port)){
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            // Introduce this worker to the coordinator
+            out.writeInt(EvaluationServer.MAGIC);
+            out.writeInt(EvaluationServer.VERSION);
+            out.writeUTF(problem.getClass().getName());
+            out.flush();
+            EvaluationWorker.serve(problem, in, out);
+        } catch (EOFException e){
+            // The coordinator has finished and closed the connection
+        } catch (IOException e){
+            MultiThreadedGeneticAlgorithm.error("Error communicating with the coordinator: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Method reads batches of genomes, evaluates them on the problem in a single batch, and writes back their 
+     * fitness, until the connection is closed
+     */
+    private static void serve(Problem problem, DataInputStream in, DataOutputStream out) throws IOException {
+        while (true){
+            long id = in.readLong();
+            int count = in.readInt();
+            int length = in.readInt();
+            Design[] designs = new Design[count];
+            for (int i = 0; i < count; i++){
+                long[] words = new long[Genome.wordCount(length)];
+                for (int w = 0; w < words.length; w++){
+                    words[w] = in.readLong();
+                }
+                designs[i] = new Design(problem, new Genome(length, words));
+            }
+            Design.evaluateAll(designs, count);
+            out.writeLong(id);
+            out.writeInt(count);
+            for (Design d: designs){
+                out.writeDouble(d.getFitness());
+            }
+            out.flush();
+        }
+    }
+}
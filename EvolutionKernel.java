@@ -0,0 +1,24 @@
+package ga;
+
+/**
+ * EvolutionKernel selects the implementation of crossover and mutation used by Design.evolve.
+ * Both kernels implement uniform crossover followed by bit flip mutation, and so produce
+ * children from the same distribution; they differ only in how the random draws are made.
+ * 
+ * @author Matt Powell
+ * @version 1.0
+ */
+public enum EvolutionKernel
+{
+    /**
+     * Draws one random number per bit for crossover and one per bit for mutation
+     */
+    BITWISE,
+
+    /**
+     * Crosses over 64 bits at a time using random masks biased to the crossover probability,
+     * and mutates by skipping between flipped positions with geometrically distributed gaps,
+     * so the cost of mutation scales with the number of flips rather than the genome length
+     */
+    WORD
+}
@@ -0,0 +1,153 @@
+ 
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * ExecutionEngine runs the tasks of the genetic algorithm, decoupling the size of the population from the
+ * number of threads used. By default it uses a fixed pool of platform threads, sized to the number of cores.
+ * It can instead start a virtual thread per task, which suits Problem implementations that block on I/O;
+ * virtual threads need Java 21, and on earlier versions the engine falls back to the fixed pool.
+ * 
+ * The threads of the pool can be pinned to a set of CPUs, such as those of one NUMA node, so that they stay
+ * on one socket. Virtual threads are scheduled by the runtime, so cannot be pinned.
+ * 
+ * @author Matt Powell
+ * @version 1.0
+ */
+public class ExecutionEngine
+{
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final int threads;
+    
+    /**
+     * Constructs an engine with a fixed pool of the given number of threads, or with a virtual 
+     * thread per task if virtualThreads is true and the runtime supports them.
+     * 
+     * @param threads number of platform threads in the pool
+     * @param virtualThreads whether to run each task on its own virtual thread
+     */
+    ExecutionEngine(int threads, boolean virtualThreads) {
+        this(threads, virtualThreads, null);
+    }
+
+    /**
+     * Constructs an engine as ExecutionEngine(int, boolean) does, pinning each thread of the pool 
+     * to the given CPUs when it starts.
+     * 
+     * @param threads number of platform threads in the pool
+     * @param virtualThreads whether to run each task on its own virtual thread
+     * @param cpus CPU list to pin the threads of the pool to, as returned by Affinity.nodes, or null
+     */
+    ExecutionEngine(int threads, boolean virtualThreads, String cpus) {
+        ExecutorService virtual = virtualThreads ? ExecutionEngine.newVirtualThreadExecutor() : null;
+        if (virtual != null){
+            if (cpus != null){
+                System.out.println("Virtual threads cannot be pinned to CPUs, threads are not pinned.");
+            }
+            this.executor = virtual;
+            this.virtualThreads = true;
+        } else {
+            if (virtualThreads){
+                System.out.println("Virtual threads are not supported by this Java runtime, using a pool of " 
+                    + threads + " threads instead.");
+            }
+            this.executor = Executors.newFixedThreadPool(threads, new WorkerThreadFactory(cpus));
+            this.virtualThreads = false;
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Method returns the number of threads used by this engine, or the number of threads it would 
+     * have used if it runs tasks on virtual threads.
+     * 
+     * @returns number of threads
+     */
+    public int getThreads(){
+        return this.threads;
+    }
+
+    /**
+     * Method returns whether this engine runs each task on a virtual thread.
+     * 
+     * @returns true if virtual threads are used
+     */
+    public boolean usesVirtualThreads(){
+        return this.virtualThreads;
+    }
+
+    /**
+     * Method schedules the task to be run. Tasks submitted after the engine has been shut down 
+     * are discarded.
+     * 
+     * @param task Runnable to be run
+     */
+    public void submit(Runnable task){
+        try{
+            this.executor.execute(task);
+        } catch (RejectedExecutionException e){
+            // The engine has been shut down, so the task is no longer needed
+        }
+    }
+
+    /**
+     * Method stops the engine accepting tasks and waits for up to the given time for the running 
+     * tasks to finish.
+     * 
+     * @param timeout maximum time to wait, in milliseconds
+     * @returns true if all tasks finished within the time
+     */
+    public boolean shutdown(long timeout){
+        this.executor.shutdown();
+        try{
+            return this.executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /*
+     * Method returns an executor which starts a new virtual thread per task, or null if the runtime does
+     * not provide virtual threads. Reflection is used so that the engine still builds on earlier versions.
+     */
+    private static ExecutorService newVirtualThreadExecutor(){
+        try{
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e){
+            return null;
+        }
+    }
+
+    /*
+     * ThreadFactory naming the pool threads, so they can be told apart in thread dumps and error messages,
+     * and pinning each to the CPUs of the engine, if it has any, before it runs its first task.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory{
+        private final AtomicInteger count = new AtomicInteger();
+        private final String cpus;
+
+        WorkerThreadFactory(String cpus){
+            this.cpus = cpus;
+        }
+
+        public Thread newThread(Runnable r){
+            if (this.cpus == null){
+                return new Thread(r, "Worker-" + this.count.getAndIncrement());
+            }
+            return new Thread(() -> {
+                Affinity.pin(this.cpus);
+                r.run();
+            }, "Worker-" + this.count.getAndIncrement());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+ 
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * FitnessCache remembers the values of designs already evaluated, keyed on the 64-bit hash of their genome, so that 
+ * offspring identical to an earlier design need not be evaluated again. Two different genomes sharing a 64-bit hash 
+ * would be given the same value, but the chance of this is negligible for any realistic number of evaluations.
+ * 
+ * The cache is split into segments chosen by the hash, each a least recently used map with its own lock, so threads
+ * rarely contend. Its size is capped in megabytes, using an estimate of the memory taken by each entry.
+ * 
+ * @author Matt Powell
+ * @version 1.0
+ */
+public class FitnessCache
+{
+    private static final int SEGMENTS = 64; // must be a power of two
+    private static final int ENTRY_BYTES = 112; // estimated heap cost of an entry: map node, boxed key and value
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final boolean countHits;
+    private final long freeHitLimit;
+    private final AtomicLong freeHits = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    
+    /**
+     * Constructs an empty cache using at most approximately the given amount of memory.
+     * 
+     * @param megabytes memory the cache may use, in megabytes
+     * @param countHits whether a cache hit counts as a function evaluation
+     * @param functionEvaluations number of function evaluations of the run, which bounds the number of hits not counted
+     */
+    FitnessCache(int megabytes, boolean countHits, int functionEvaluations) {
+        long entries = Math.max((long) megabytes * 1024 * 1024 / ENTRY_BYTES, SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++){
+            this.segments[i] = new Segment((int) Math.min(entries / SEGMENTS, Integer.MAX_VALUE));
+        }
+        this.countHits = countHits;
+        this.freeHitLimit = functionEvaluations;
+    }
+
+    /**
+     * Method returns the cached fitness of the design, or NaN if it is not in the cache. 
+     * 
+     * @param d Design to look up
+     * @returns double fitness of the design, or NaN
+     */
+    public double get(Design d){
+        long hash = d.genomeHash();
+        Segment segment = this.segmentFor(hash);
+        Double fitness;
+        synchronized (segment){
+            fitness = segment.get(hash);
+        }
+        if (fitness == null){
+            this.misses.increment();
+            return Double.NaN;
+        }
+        this.hits.increment();
+        return fitness;
+    }
+
+    /**
+     * Method stores the fitness of an evaluated design in the cache, evicting the least recently 
+     * used entry of its segment if the segment is full.
+     * 
+     * @param d evaluated Design to store
+     */
+    public void put(Design d){
+        long hash = d.genomeHash();
+        Segment segment = this.segmentFor(hash);
+        synchronized (segment){
+            segment.put(hash, d.getFitness());
+        }
+    }
+
+    /**
+     * Method returns whether a cache hit should count as a function evaluation. Hits are only free 
+     * when configured to be, and then only up to one run's worth of evaluations, so that a population 
+     * that has stopped producing new designs still reaches the termination criteria.
+     * 
+     * @returns boolean true if the hit should be counted
+     */
+    public boolean isHitCounted(){
+        return this.countHits || this.freeHits.incrementAndGet() > this.freeHitLimit;
+    }
+
+    /**
+     * Method returns the number of lookups which found a value.
+     * 
+     * @returns number of hits
+     */
+    public long getHits(){
+        return this.hits.sum();
+    }
+
+    /**
+     * Method returns the number of lookups which did not find a value.
+     * 
+     * @returns number of misses
+     */
+    public long getMisses(){
+        return this.misses.sum();
+    }
+
+    /*
+     * Method returns the segment holding the given hash, chosen by its top bits as the low bits pick 
+     * the bucket within the segment
+     */
+    private Segment segmentFor(long hash){
+        return this.segments[(int) (hash >>> 58) & (SEGMENTS - 1)];
+    }
+
+    /*
+     * Segment is an access ordered map which removes its least recently used entry once it holds more 
+     * than its capacity. It is guarded by its own monitor.
+     */
+    private static class Segment extends LinkedHashMap<Long, Double>{
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        Segment(int capacity){
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Double> eldest){
+            return this.size() > this.capacity;
+        }
+    }
+}
@@ -2,13 +2,18 @@
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Random;
+import java.util.LinkedHashSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 /**
  * GAData stores the data associated with the genetic algorithm, such as the array of elite designs. It provides
  * a number of methods to allow threads to get and set such data in a threadsafe manner.
  * 
+ * The elite designs are held by one or more islands. With several islands, each island has its own elite designs
+ * archive, and periodically sends copies of its best designs to other islands along the migration topology.
+ * 
  * 
  * @author 620018133 & 630019424
  * @version 1.0
@@ -21,22 +26,71 @@ public class GAData
     private double mutationRate;
     private int functionEvaluations;
     private Problem genericProblem;
-    private volatile boolean termination = false;
-    private volatile int counter = 0;
-    private volatile boolean eliteSetLock = false;
-    private volatile boolean eliteCopySetLock= false;
-    private Random r = new Random();
+    private final EvaluationBudget budget;
     private volatile ArrayList<Design> designs = new ArrayList<Design>();
-    private volatile ArrayList<Design> eliteDesigns = new ArrayList<Design>();
-    private volatile ArrayList<Design> eliteDesignsCopy = new ArrayList<Design>();
+    private final Island[] islands;
+    private final DesignPool pool;
+    private MigrationTopology topology = MigrationTopology.RING;
+    private long migrationInterval = 0; // evaluations per island between migrations, 0 for none
+    private int migrants = 1; // number of designs sent per migration
     
     GAData(int p, int e, double c, double m, int f, Problem g) {
+        this(p, e, c, m, f, g, null);
+    }
+
+    GAData(int p, int e, double c, double m, int f, Problem g, DesignPool pool) {
+        this(p, e, c, m, f, g, pool, 1);
+    }
+
+    GAData(int p, int e, double c, double m, int f, Problem g, DesignPool pool, int islandCount) {
         this.populationSize = p;
         this.eliteSize = e;
         this.crossoverRate = c;
         this.mutationRate = m;
         this.functionEvaluations = f;
+        this.budget = new EvaluationBudget(f);
         this.genericProblem = g;
+        this.pool = pool;
+        this.islands = new Island[islandCount];
+        for (int i = 0; i < islandCount; i++){
+            this.islands[i] = new Island(i, e, pool);
+        }
+    }
+
+    /**
+     * Method to set how the islands exchange designs.
+     * 
+     * @param topology MigrationTopology choosing which islands receive an island's migrants
+     * @param interval number of evaluations made on an island between its migrations, or 0 for none
+     * @param count number of designs sent in each migration
+     */
+    public void setMigration(MigrationTopology topology, long interval, int count){
+        this.topology = topology;
+        this.migrationInterval = interval;
+        this.migrants = count;
+    }
+    
+    /**
+     * Method to set how every island selects crossover parents from its elite designs archive.
+     * 
+     * @param selection SelectionStrategy to select parents with
+     * @param tournamentSize number of designs drawn for each tournament, for SelectionStrategy.TOURNAMENT
+     */
+    public void setSelection(SelectionStrategy selection, int tournamentSize){
+        for (Island island: this.islands){
+            island.setSelection(selection, tournamentSize);
+        }
+    }
+    
+    /**
+     * Method to set whether the archive of every island accepts a design whose genome it already holds.
+     * 
+     * @param allowDuplicates true to accept duplicates, false to reject them
+     */
+    public void setAllowDuplicates(boolean allowDuplicates){
+        for (Island island: this.islands){
+            island.getEliteArchive().setAllowDuplicates(allowDuplicates);
+        }
     }
     
     /**
@@ -49,62 +103,14 @@ public class GAData
     }
 
     /**
-     * Synchronized method to add design into the elite designs array if it qualifies as an
-     * elite design. This method returns false if the elite designs array is currently inaccessible 
-     * (as the lock is held) or if the design passed in has not yet been evaluated. The method returns
-     * true when the design has been checked, and added into the elite designs array (if necessary).
+     * Method to add design into the elite designs archive of the first island if it qualifies as an elite 
+     * design. With a single island, this is the only elite designs archive.
      * 
-     * @param d Design to be added into the elite design array
-     * @returns boolean if the elite designs array has been accessed
+     * @param d Design to be added into the elite design archive
+     * @returns boolean true if the design was added to the elite designs archive
      */
-    public synchronized boolean addEliteDesign(Design d){ 
-        // If the elite designs array is currently inaccessible, return false;
-        if (this.eliteSetLock == true){
-            return false;
-        }
-
-        // Set the lock to true, so other threads cannot access the array until
-        // the lock is released
-        this.eliteSetLock = true;
-
-        Design minimum;
-
-        // If the design passed in has not been evaluated, print error message and
-        // exit the system
-        if(d.isEvaluated() == false){
-            MultiThreadedGeneticAlgorithm.error("Design has not been evaluated");
-        }
-
-        // If the number of elite designs is still smaller than the required group
-        // size, add the design as an elite design
-        if(this.eliteDesigns.size() < eliteSize){
-            eliteDesigns.add(d);
-            // Update the copy array of elite designs
-            this.eliteDesignsCopy = this.eliteDesigns;
-            // Release the lock
-            this.eliteSetLock = false;
-            return true;
-        }
-
-        // Get the value of the current worst design in the elite designs array
-        minimum = Collections.min(this.eliteDesigns);
-
-        // Now the elite designs array is full, check if the value of the design passed in
-        // is greater than the value of the worst design in the elite array
-        if(d.getValue().doubleValue() > minimum.getValue().doubleValue()){
-            // Swap the design with the current worst design in the array
-            eliteDesigns.set(eliteDesigns.indexOf( (Object) minimum), d);
-            // Update the copy array of elite designs
-            this.eliteDesignsCopy = this.eliteDesigns;
-            // Realease the lock
-            this.eliteSetLock = false;
-            return true;
-        }
-        
-        // Else the design does not qualify as an elite design, but as it has been checked
-        // we release the lock and return true
-        this.eliteSetLock = false;
-        return true;
+    public boolean addEliteDesign(Design d){ 
+        return this.islands[0].addEliteDesign(d);
     }
     
     /**
@@ -117,115 +123,233 @@ public class GAData
     }
     
     /**
-     * Synchronized method to get the size of the elite designs array.
+     * Method to get the total number of designs held by the elite designs archives of the islands.
      * 
-     * @returns size of the elite designs array
+     * @returns size of the elite designs archives
      */
-    public synchronized int getEliteDesignsArraySize(){
-        return this.eliteDesigns.size();
+    public int getEliteDesignsArraySize(){
+        int size = 0;
+        for (Island island: this.islands){
+            size += island.getEliteArchive().size();
+        }
+        return size;
     }
    
     /**
-     * Method to return the current elite designs array.
+     * Method to return a copy of the current elite designs, which is not affected by later inserts. With several 
+     * islands, the best designs across all of them are returned, without the duplicates left by migration, up to 
+     * the elite set size.
      * 
      * @returns ArrayList<Design> array of elite designs
      */
     public ArrayList<Design> getEliteDesignsArray(){
-        return this.eliteDesigns;
+        if (this.islands.length == 1){
+            return this.islands[0].getEliteArchive().toList();
+        }
+        ArrayList<Design> all = new ArrayList<Design>();
+        for (Island island: this.islands){
+            all.addAll(island.getEliteArchive().toList());
+        }
+        // Sort best first, then drop designs equal to a better one
+        Collections.sort(all, Collections.reverseOrder((a, b) -> Double.compare(a.getFitness(), b.getFitness())));
+        ArrayList<Design> best = new ArrayList<Design>(new LinkedHashSet<Design>(all));
+        return new ArrayList<Design>(best.subList(0, Math.min(this.eliteSize, best.size())));
+    }
+
+    /**
+     * Method returns the island with the given index.
+     * 
+     * @param i index of the island
+     * @returns Island with the given index
+     */
+    public Island getIsland(int i){
+        return this.islands[i];
+    }
+
+    /**
+     * Method returns the number of islands.
+     * 
+     * @returns number of islands
+     */
+    public int getIslandCount(){
+        return this.islands.length;
+    }
+
+    /**
+     * Method to record evaluations made by the members of an island, sending copies of the island's best designs 
+     * to other islands whenever the island passes a multiple of the migration interval. The migration is made by 
+     * the calling thread.
+     * 
+     * @param from Island whose members made the evaluations
+     * @param n number of evaluations made
+     */
+    public void countEvaluations(Island from, int n){
+        this.countEvaluations(from, n, null);
     }
 
     /**
-     * Synchronized method which gets the first design in the designs array and removes
-     * it from the array.
+     * Method to record evaluations made by the members of an island as countEvaluations(Island, int) does, 
+     * choosing the destination of a random migration with the given stream of random numbers.
      * 
-     * @returns Design first design in the elite design array
+     * @param from Island whose members made the evaluations
+     * @param n number of evaluations made
+     * @param rng stream of random numbers of the calling worker, or null to use the stream of the calling thread
+     */
+    public void countEvaluations(Island from, int n, SplittableRandom rng){
+        if (this.islands.length == 1 || !from.countEvaluations(n, this.migrationInterval)){
+            return;
+        }
+        switch (this.topology){
+            case RING:
+                this.migrate(from, this.islands[(from.getIndex() + 1) % this.islands.length]);
+                break;
+            case FULL:
+                for (Island to: this.islands){
+                    if (to != from){
+                        this.migrate(from, to);
+                    }
+                }
+                break;
+            case RANDOM:
+                int bound = this.islands.length - 1;
+                int other = rng != null ? rng.nextInt(bound) : ThreadLocalRandom.current().nextInt(bound);
+                this.migrate(from, this.islands[other >= from.getIndex() ? other + 1 : other]);
+                break;
+        }
+    }
+
+    /*
+     * Method offers copies of the best designs of one island to the elite designs archive of another. Each 
+     * island receives its own copies, so no design is ever held by two archives.
+     */
+    private void migrate(Island from, Island to){
+        for (Design migrant: from.getEliteArchive().copyBest(this.migrants)){
+            to.addEliteDesign(migrant);
+        }
+    }
+
+    /**
+     * Synchronized method which gets the last design in the designs array and removes
+     * it from the array. Taking the last design avoids shifting the rest of the array, which
+     * matters for large populations.
+     * 
+     * @returns Design last design in the designs array
      */
     public synchronized Design getAndRemoveDesign(){
-        Design temp = this.designs.get(0);
-        this.designs.remove(temp);
-        return temp;
-    }
-
-    /**
-     * Synchronized method which returns a random design from the elite designs array.
-     * If a lock is held on the elite designs array, a most recent copy of the array is 
-     * attempted to be accessed. If a lock is also held on the copy array, null is returned.
-     * 
-     * @returns Design random design from elite desings array or from its most recent copy array
-     */
-    public synchronized Design getRandomEliteDesign(){
-        Design temp;
-        // Check main elite designs array is not locked
-        if(this.eliteSetLock == false){
-            // Set lock
-            this.eliteSetLock = true;
-            // Get random design in the array
-            temp = this.eliteDesigns.get(r.nextInt(eliteDesigns.size()));
-            // Release lock
-            this.eliteSetLock = false;
-            return temp;
-        } // Else check the copy array is not locked
-        else if(this.eliteCopySetLock == false){
-            // Set lock
-            this.eliteCopySetLock = true;
-            // Get random design in the array
-            temp = this.eliteDesignsCopy.get(r.nextInt(eliteDesignsCopy.size()));
-            // Release lock
-            this.eliteCopySetLock = false;
-            return temp;
+        return this.designs.remove(this.designs.size() - 1);
+    }
+
+    /**
+     * Method which returns a random design from the elite designs archive of the first island. Readers never 
+     * block, and only return null if no design has been added to the archive yet. The design must be passed
+     * to releaseEliteDesign once the caller has finished with it.
+     * 
+     * @returns Design random design from elite desings archive
+     */
+    public Design getRandomEliteDesign(){
+        return this.islands[0].getRandomEliteDesign();
+    }
+
+    /**
+     * Method which releases a design returned by getRandomEliteDesign, allowing it to be recycled 
+     * once it leaves the elite designs archive.
+     * 
+     * @param d Design returned by getRandomEliteDesign
+     */
+    public void releaseEliteDesign(Design d){
+        this.islands[0].releaseEliteDesign(d);
+    }
+
+    /**
+     * Method which returns a copy of the design passed in, reusing a recycled design of the calling
+     * thread where the design pool is enabled.
+     * 
+     * @param d Design to be copied
+     * @returns Design copy which has a seperate memory reference
+     */
+    public Design copyDesign(Design d){
+        if (this.pool != null){
+            return this.pool.copyOf(d);
         }
-        // If both arrays are locked, return null
-        return null;
+        return new Design(d);
     }
 
     /**
-     * Synchronized method which checks the flag that signifies if the 
-     * termination criteria has been met.
+     * Method which checks the flag that signifies if the termination criteria has been met, 
+     * that is every function evaluation has been made.
      * 
      * @returns boolean the termination flag
      */
-    public synchronized boolean terminationMet(){
-        return termination;
+    public boolean terminationMet(){
+        return this.budget.isExhausted();
     }
 
     /**
-     * Synchronized method which checks is the number of evalutations has been met.
-     * If it has been the flag is set to true and the method also returns true.
+     * Method which stops the run early: the termination criteria is met, so workers stop at their next step.
+     */
+    public void stop(){
+        this.budget.stop();
+    }
+
+    /**
+     * Method which waits until the termination criteria has been met.
      * 
-     * @returns boolean if required number of evaluations has been met
+     * @throws InterruptedException if interrupted while waiting
      */
-    public synchronized boolean checkAndSetTermination(){
-        // Check if the counter is equal to the number of function evaluations
-        if(this.counter == this.functionEvaluations){
-            // Set flag
-            termination = true;
-            return true;
-        }
-        return false;
+    public void awaitTermination() throws InterruptedException {
+        this.budget.await();
     }
-    
+
     /**
-     * Synchronized method which increments the counter that keeps track of the number of
-     * evaluations completed so far, and checks whether the required number of evaluations 
-     * has been met. If they have the method returns true.
+     * Method which waits up to the given time for the termination criteria to be met.
      * 
-     * @returns boolean if the required number of evaluations has been met
+     * @param timeout maximum time to wait, in milliseconds
+     * @returns boolean true if the termination criteria has been met
+     * @throws InterruptedException if interrupted while waiting
      */
-    public synchronized boolean incrementCounter(){
-        this.counter++;
-        return this.checkAndSetTermination();
+    public boolean awaitTermination(long timeout) throws InterruptedException {
+        return this.budget.await(timeout);
     }
 
     /**
-     * Synchronized method which returns the state of elite set lock. If the elite set is locked
-     * this will return true.
+     * Method which creates a lease through which a worker takes function evaluations from the 
+     * evaluation budget. Each worker must use its own lease, and release it when it stops.
      * 
-     * @returns boolean if the elite set is locked
+     * @returns EvaluationBudget.Lease new lease on the evaluation budget
      */
-    public synchronized boolean checkEliteSetLock(){
-        return this.eliteSetLock;
+    public EvaluationBudget.Lease newLease(){
+        return this.budget.newLease();
     }
-    
+
+    /**
+     * Method which returns the number of function evaluations made and reported so far.
+     * 
+     * @returns number of evaluations completed
+     */
+    public long getEvaluationCount(){
+        return this.budget.getCompleted();
+    }
+
+    /**
+     * Method which returns the number of function evaluations made so far, including those workers have
+     * made but not yet reported, for a checkpoint to save.
+     * 
+     * @returns number of evaluations made
+     */
+    public long getEvaluationsMade(){
+        return this.budget.getMade();
+    }
+
+    /**
+     * Method which counts the evaluations made before a checkpoint as already made, so that a resumed 
+     * run only makes the rest of them. It must be called before the algorithm starts.
+     * 
+     * @param made number of evaluations made before the checkpoint
+     */
+    public void resumeEvaluationCount(long made){
+        this.budget.resume(made);
+    }
+
     /**
      * Method which returns the problem stored in this class.
      * 
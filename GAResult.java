@@ -0,0 +1,118 @@
+ 
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/**
+ * GAResult is the outcome of a run of the MultiThreadedGeneticAlgorithm started with start. It completes with the 
+ * elite designs of the run, best first, once every function evaluation has been made and the threads of the run 
+ * have stopped; if a worker threw an exception, the run is stopped and the result completes with it as the cause 
+ * of an ExecutionException.
+ * 
+ * Cancelling asks the workers to stop at their next step, and waits for them to do so, so no thread of the run is
+ * still running once cancel returns.
+ * 
+ * @author Matt Powell
+ * @version 1.0
+ */
+public class GAResult implements Future<List<Design>>
+{
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final Runnable stopper; // asks the run to stop
+    private volatile List<Design> designs;
+    private volatile Throwable failure;
+    private volatile boolean cancelled = false;
+    
+    /**
+     * Constructs the result of a run, which is stopped by the given action when cancelled.
+     * 
+     * @param stopper Runnable asking the run to stop
+     */
+    GAResult(Runnable stopper) {
+        this.stopper = stopper;
+    }
+
+    /**
+     * Method completes this result with the elite designs of the run.
+     * 
+     * @param designs elite designs, best first
+     */
+    void complete(List<Design> designs){
+        this.designs = designs;
+        this.done.countDown();
+    }
+
+    /**
+     * Method completes this result with the exception which stopped the run.
+     * 
+     * @param failure exception thrown by a worker
+     */
+    void fail(Throwable failure){
+        this.failure = failure;
+        this.done.countDown();
+    }
+
+    /**
+     * Method stops the run, if it has not yet completed, and waits for its threads to stop.
+     * 
+     * @param mayInterruptIfRunning ignored, as workers are always stopped between steps
+     * @returns true if the run was stopped, false if it had already completed
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning){
+        if (this.isDone()){
+            return false;
+        }
+        this.cancelled = true;
+        this.stopper.run();
+        try{
+            this.done.await();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled(){
+        return this.cancelled;
+    }
+
+    @Override
+    public boolean isDone(){
+        return this.done.getCount() == 0;
+    }
+
+    @Override
+    public List<Design> get() throws InterruptedException, ExecutionException {
+        this.done.await();
+        return this.report();
+    }
+
+    @Override
+    public List<Design> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!this.done.await(timeout, unit)){
+            throw new TimeoutException("The run has not completed");
+        }
+        return this.report();
+    }
+
+    /*
+     * Method returns the designs of a completed run, or throws the way it ended otherwise
+     */
+    private List<Design> report() throws ExecutionException {
+        if (this.cancelled){
+            throw new CancellationException("The run was cancelled");
+        }
+        if (this.failure != null){
+            throw new ExecutionException(this.failure);
+        }
+        return this.designs;
+    }
+}
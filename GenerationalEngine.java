@@ -0,0 +1,288 @@
+ 
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * GenerationalEngine runs the genetic algorithm a generation at a time, rather than as members which each evolve
+ * their designs at their own pace. Each generation the whole population is evaluated in parallel, the designs are
+ * offered to the elite designs archive in population order, and the next generation is then bred in parallel. Each
+ * child is a copy of a parent chosen from the generation by tournament, crossed over with a parent selected from
+ * the archive, so the archive carries the best designs from generation to generation.
+ *
+ * The population is split into chunks of the batch size, and the chunks are evaluated and bred as fork-join tasks,
+ * so each thread works through neighbouring designs and each chunk is evaluated as one batch. Every chunk is bred
+ * with its own stream of random numbers, split off in order each generation, so a seeded run gives the same results
+ * whatever the number of threads.
+ *
+ * Two arrays of designs are kept and swapped each generation, so children overwrite the designs of the generation
+ * before last in place, except where those designs are held by the archive.
+ *
+ * @author Matt Powell
+ * @version 1.0
+ */
+public class GenerationalEngine
+{
+    private final GAData data;
+    private final Island island;
+    private final EvolutionKernel kernel;
+    private final RateController rates;
+    private final int batchSize;
+    private final int tournamentSize;
+    private final FitnessCache cache;
+    private final EvaluationServer server;
+    private final Metrics metrics;
+    private final SplittableRandom rng; // stream the streams of the chunks are split from each generation
+    private final ForkJoinPool pool;
+    private Design[] current; // generation being evaluated
+    private Design[] next; // generation before last, overwritten by the children of the current generation
+    private final boolean[] held; // whether each design of next may be held by the archive
+    private final boolean[] accepted; // whether each design of current was added to the archive
+    private volatile long generations = 0;
+    private volatile Throwable failure; // exception which stopped the engine, if any
+    private Thread thread;
+
+    /**
+     * Constructs a generational engine for the designs of the given data, which must have a single island.
+     *
+     * @param data GAData holding the population and the elite designs archive
+     * @param kernel EvolutionKernel used to evolve designs
+     * @param rates RateController giving the crossover and mutation rates, which is told the outcome of each offer
+     * @param batchSize number of designs evaluated and bred together by one task
+     * @param tournamentSize number of designs of the generation drawn for each tournament, at least 2
+     * @param threads number of threads evaluating and breeding
+     * @param cache FitnessCache to look designs up in, or null for none
+     * @param server EvaluationServer to evaluate designs on, or null to evaluate them in this process
+     * @param metrics Metrics to record the work of the engine in
+     * @param rng stream of random numbers, which the stream of each chunk is split from
+     */
+    GenerationalEngine(GAData data, EvolutionKernel kernel, RateController rates, int batchSize,
+            int tournamentSize, int threads, FitnessCache cache, EvaluationServer server, Metrics metrics, SplittableRandom rng) {
+        this.data = data;
+        this.island = data.getIsland(0);
+        this.kernel = kernel;
+        this.rates = rates;
+        this.batchSize = batchSize;
+        this.tournamentSize = Math.max(2, tournamentSize);
+        this.cache = cache;
+        this.server = server;
+        this.metrics = metrics;
+        this.rng = rng;
+        this.pool = new ForkJoinPool(threads);
+        int size = data.getDesignsArraySize();
+        this.current = new Design[size];
+        this.next = new Design[size];
+        this.held = new boolean[size];
+        this.accepted = new boolean[size];
+        for (int i = 0; i < size; i++){
+            this.current[i] = data.getAndRemoveDesign();
+        }
+    }
+
+    /**
+     * Method starts the thread running the generations. It stops once the termination criteria has been met.
+     */
+    public void start(){
+        this.thread = new Thread(this::run, "Generations");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Method waits for the engine to stop, after which every design evaluated has been offered to the
+     * elite designs archive, and the threads of the engine have stopped.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void join() throws InterruptedException {
+        this.thread.join();
+        this.pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Method returns the exception which stopped the engine, or null if it stopped normally.
+     *
+     * @returns Throwable exception thrown while evaluating or breeding, or null
+     */
+    public Throwable getFailure(){
+        return this.failure;
+    }
+
+    /**
+     * Method returns a summary of the work done by the engine.
+     *
+     * @returns String describing the generations run
+     */
+    public String report(){
+        return "Generations: " + this.generations + " of " + this.current.length + " designs";
+    }
+
+    /**
+     * Method returns the designs of the current generation, which may be part way through being evaluated.
+     *
+     * @returns List<Design> designs of the population
+     */
+    public List<Design> getPopulation(){
+        return new ArrayList<Design>(Arrays.asList(this.current));
+    }
+
+    /*
+     * Generation loop: acquires the evaluations of a generation, evaluates it, offers it to the archive, and
+     * breeds the next generation, until the budget runs out or the run is stopped
+     */
+    private void run(){
+        EvaluationBudget.Lease lease = this.data.newLease();
+        int n = this.current.length;
+        int chunks = (n + this.batchSize - 1) / this.batchSize;
+        try{
+            while (!this.data.terminationMet()){
+                // Near the end only the first designs of the generation are granted evaluations
+                int count = lease.acquire(n);
+                if (count == 0 || !this.evaluate(count)){
+                    break;
+                }
+                for (int i = 0; i < count; i++){
+                    this.accepted[i] = this.island.addEliteDesign(this.current[i]);
+                    this.metrics.recordOffer(this.accepted[i]);
+                    this.rates.recordOffer(this.accepted[i]);
+                }
+                this.data.countEvaluations(this.island, count, this.rng);
+                this.generations++;
+                if (count < n || this.data.terminationMet()){
+                    break;
+                }
+                SplittableRandom[] streams = new SplittableRandom[chunks];
+                for (int c = 0; c < chunks; c++){
+                    streams[c] = this.rng.split();
+                }
+                this.pool.invoke(new Chunks(0, chunks, (c, lo, hi) -> this.breed(lo, hi, streams[c])));
+                // The designs just bred become the current generation
+                for (int i = 0; i < n; i++){
+                    this.held[i] = this.accepted[i];
+                }
+                Design[] bred = this.next;
+                this.next = this.current;
+                this.current = bred;
+            }
+        } catch (Throwable e){
+            // Errors thrown by the problem stop the run too, so that its result still completes
+            this.failure = e;
+            this.data.stop();
+        } finally{
+            lease.release();
+            this.pool.shutdown();
+        }
+    }
+
+    /*
+     * Method evaluates the first count designs of the current generation in parallel, a chunk at a time, and
+     * returns false if the evaluation workers were closed before they finished
+     */
+    private boolean evaluate(int count){
+        int chunks = (count + this.batchSize - 1) / this.batchSize;
+        boolean[] closed = new boolean[1];
+        this.pool.invoke(new Chunks(0, chunks, (c, lo, hi) -> {
+            hi = Math.min(hi, count);
+            Design[] batch = Arrays.copyOfRange(this.current, lo, hi);
+            // Look the designs up in the fitness cache; hits still count as evaluations
+            if (this.cache != null){
+                for (Design d: batch){
+                    double fitness = this.cache.get(d);
+                    if (!Double.isNaN(fitness)){
+                        d.setFitness(fitness);
+                    }
+                }
+            }
+            long start = System.nanoTime();
+            if (this.server != null){
+                try{
+                    this.server.evaluateAll(batch, batch.length);
+                } catch (InterruptedException e){
+                    closed[0] = true;
+                    return;
+                }
+            } else {
+                Design.evaluateAll(batch, batch.length);
+            }
+            this.metrics.recordEvaluate(System.nanoTime() - start);
+            if (this.cache != null){
+                for (Design d: batch){
+                    this.cache.put(d);
+                }
+            }
+        }));
+        return !closed[0];
+    }
+
+    /*
+     * Method breeds the children of the designs on [lo,hi) of the next generation: each is a copy of the winner
+     * of a tournament of the current generation, crossed over with a parent selected from the archive
+     */
+    private void breed(int lo, int hi, SplittableRandom rng){
+        int n = this.current.length;
+        for (int i = lo; i < hi; i++){
+            Design winner = this.current[rng.nextInt(n)];
+            for (int j = 1; j < this.tournamentSize; j++){
+                Design entrant = this.current[rng.nextInt(n)];
+                if (entrant.getFitness() > winner.getFitness()){
+                    winner = entrant;
+                }
+            }
+            // A design the archive may hold cannot be overwritten, so its child is a new design
+            long start = System.nanoTime();
+            if (this.next[i] == null || this.held[i]){
+                this.next[i] = new Design(winner);
+            } else {
+                this.next[i].copyFrom(winner);
+            }
+            this.metrics.recordCopy(System.nanoTime() - start);
+            Design parent = this.island.getRandomEliteDesign(rng);
+            start = System.nanoTime();
+            this.next[i].evolve(parent, this.rates.getCrossoverRate(), this.rates.getMutationRate(), this.kernel, rng);
+            this.metrics.recordEvolve(System.nanoTime() - start);
+            this.island.releaseEliteDesign(parent);
+        }
+    }
+
+    /**
+     * Task is the work done on one chunk of the population, given the index of the chunk and the range of
+     * designs it covers.
+     */
+    private interface Task{
+        void run(int chunk, int lo, int hi);
+    }
+
+    /**
+     * Chunks is a fork-join task which runs a Task on each chunk of a range of chunks, splitting the range
+     * in half until a single chunk is left.
+     */
+    private class Chunks extends RecursiveAction{
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+        private final Task task;
+
+        Chunks(int from, int to, Task task){
+            this.from = from;
+            this.to = to;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute(){
+            if (this.to - this.from == 1){
+                int lo = this.from * GenerationalEngine.this.batchSize;
+                this.task.run(this.from, lo, Math.min(lo + GenerationalEngine.this.batchSize, GenerationalEngine.this.current.length));
+            } else if (this.to > this.from){
+                int middle = (this.from + this.to) >>> 1;
+                RecursiveAction.invokeAll(new Chunks(this.from, middle, this.task), new Chunks(middle, this.to, this.task));
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.SplittableRandom;
 import java.io.Serializable;
 import ga.*;
 
@@ -9,28 +10,38 @@ import ga.*;
  * @author (your name) 
  * @version (a version number or a date)
  */
-public class GenericProblem implements Problem, Serializable
+public class GenericProblem implements IncrementalProblem, Serializable
 {
 
     public GenericProblem(){
     }
 
-    public Number evaluate(Design d){
+    public double evaluateDouble(Design d){
         // set sum of true and false entries = 1, so if there are neither we do no divide by 0
         double trueSum = 1;
         double falseSum = 1;
         // sum the number of true and false values in the design vector
         // a higher ratio of true to false means a better solution
-        for (boolean b: d.getDesignParameters()){
-            if (b == true){
-                trueSum += 1;
-            } else
-                falseSum += 1;
-        }
+        Genome genome = d.getGenome();
+        int ones = genome.cardinality();
+        trueSum += ones;
+        falseSum += genome.length() - ones;
         double ratio = 1/(trueSum+falseSum);
         return ratio*trueSum;
     }
 
+    // Method which evaluates a design from its parent's value, counting the changed bits that are now true
+    // against those that are now false
+    public double evaluateDelta(Design d, double parentValue, int[] changed){
+        Genome genome = d.getGenome();
+        double total = genome.length() + 2;
+        long ones = Math.round(parentValue * total) - 1;
+        for (int i: changed){
+            ones += genome.get(i) ? 1 : -1;
+        }
+        return 1 / total * (ones + 1);
+    }
+
     // Method which returns an random sized list of booleans
     public ArrayList<Boolean> getRandomDesignVector(){
         ArrayList<Boolean> list = new ArrayList<Boolean>();
@@ -49,4 +60,13 @@ public class GenericProblem implements Problem, Serializable
         }
         return list;
     }
+
+    // Method which returns a list of booleans drawn from the given stream, so seeded runs are repeatable
+    public ArrayList<Boolean> getRandomDesignVector(SplittableRandom rng){
+        ArrayList<Boolean> list = new ArrayList<Boolean>();
+        for (int i = 0; i < 100; i++){
+            list.add(rng.nextBoolean());
+        }
+        return list;
+    }
 }
@@ -0,0 +1,284 @@
+package ga;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.io.Serializable;
+
+/**
+ * The Genome class holds the binary string of a Design packed 64 bits to a long word. Problems
+ * may read it through the public accessors without any boxing; only the classes of the ga package
+ * are able to modify it.
+ *
+ * @author Matt Powell
+ * @version 1.0
+ */
+public final class Genome implements Serializable
+{
+    private static final long serialVersionUID = 4233529740018659384L; // as computed before it was declared, so saved designs still read
+    private static final int WORD_BITS = 64;
+    private final int length; // number of bits held
+    private final long[] words; // bits, bit i stored in words[i >>> 6] at position (i & 63)
+
+    /**
+     * Constructs a genome of the given length with every bit cleared
+     *
+     * @param length number of bits this genome holds
+     */
+    Genome(int length){
+        this.length = length;
+        this.words = new long[Genome.wordCount(length)];
+    }
+
+    /**
+     * Constructs a genome of the given length holding the given packed words, which are
+     * used directly rather than copied
+     *
+     * @param length number of bits this genome holds
+     * @param words packed words, as returned by toLongArray
+     */
+    Genome(int length, long[] words){
+        if (words.length != Genome.wordCount(length))
+            throw new IllegalArgumentException(words.length + " words cannot hold a genome of length " + length);
+        this.length = length;
+        this.words = words;
+        // clear any bits beyond the end of the genome, which equals and the kernels rely on
+        if (length % WORD_BITS != 0)
+            this.words[words.length - 1] &= -1L >>> -length;
+    }
+
+    /**
+     * Constructs a genome holding a copy of the bits of the other genome
+     *
+     * @param other genome to copy
+     */
+    Genome(Genome other){
+        this.length = other.length;
+        this.words = other.words.clone();
+    }
+
+    /**
+     * Method packs the given list of booleans (as returned by Problem.getRandomDesignVector)
+     * into a new genome
+     *
+     * @param list design vector to pack
+     * @returns genome holding the same bits as the list
+     */
+    static Genome fromList(List<Boolean> list){
+        Genome genome = new Genome(list.size());
+        int i = 0;
+        for (boolean b: list){
+            if (b)
+                genome.words[i >>> 6] |= 1L << i;
+            i++;
+        }
+        return genome;
+    }
+
+    /**
+     * Method returns the number of long words needed to hold the given number of bits
+     *
+     * @param length number of bits
+     * @returns number of words
+     */
+    static int wordCount(int length){
+        return (length + WORD_BITS - 1) / WORD_BITS;
+    }
+
+    /**
+     * Method returns the number of bits held in this genome
+     *
+     * @returns length of this genome
+     */
+    public int length(){
+        return this.length;
+    }
+
+    /**
+     * Method returns the bit at the given index
+     *
+     * @param index index of the bit, must be on the range [0,length)
+     * @returns true if the bit is set, false otherwise
+     */
+    public boolean get(int index){
+        if (index < 0 || index >= this.length)
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for genome of length " + this.length);
+        return (this.words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Method returns the number of set bits in this genome
+     *
+     * @returns number of true entries
+     */
+    public int cardinality(){
+        int count = 0;
+        for (long w: this.words)
+            count += Long.bitCount(w);
+        return count;
+    }
+
+    /**
+     * Method returns the number of set bits on the index range [from,to)
+     *
+     * @param from first index of the range (inclusive)
+     * @param to last index of the range (exclusive)
+     * @returns number of true entries in the range
+     */
+    public int cardinality(int from, int to){
+        if (from < 0 || to > this.length || from > to)
+            throw new IndexOutOfBoundsException("Range [" + from + "," + to + ") out of bounds for genome of length " + this.length);
+        if (from == to)
+            return 0;
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (first == last)
+            return Long.bitCount(this.words[first] & firstMask & lastMask);
+        int count = Long.bitCount(this.words[first] & firstMask);
+        for (int i = first + 1; i < last; i++)
+            count += Long.bitCount(this.words[i]);
+        return count + Long.bitCount(this.words[last] & lastMask);
+    }
+
+    /**
+     * Method returns the index of the first set bit at or after the given index, so problems
+     * can iterate over the true entries with: for (int i = g.nextSetBit(0); i >= 0; i = g.nextSetBit(i + 1))
+     *
+     * @param from index to start searching from
+     * @returns index of the next set bit, or -1 if there is none
+     */
+    public int nextSetBit(int from){
+        if (from < 0)
+            throw new IndexOutOfBoundsException("Index " + from + " is negative");
+        if (from >= this.length)
+            return -1;
+        int i = from >>> 6;
+        long w = this.words[i] & (-1L << from);
+        while (w == 0){
+            if (++i == this.words.length)
+                return -1;
+            w = this.words[i];
+        }
+        return i * WORD_BITS + Long.numberOfTrailingZeros(w);
+    }
+
+    /**
+     * Method returns the number of positions at which this genome and the other differ
+     *
+     * @param other genome of the same length to compare against
+     * @returns Hamming distance between the two genomes
+     */
+    public int distance(Genome other){
+        int count = 0;
+        for (int i = 0; i < this.words.length; i++)
+            count += Long.bitCount(this.words[i] ^ other.words[i]);
+        return count;
+    }
+
+    /**
+     * Method returns a 64-bit hash of this genome. Every word is passed through a full avalanche
+     * mix before being combined, so genomes that differ in a single bit have unrelated hashes; this
+     * makes the hash suitable as a key for identifying genomes, unlike hashCode.
+     *
+     * @returns 64-bit hash of the bits and length of this genome
+     */
+    public long hash64(){
+        long h = Genome.mix(this.length);
+        for (int i = 0; i < this.words.length; i++)
+            h = Long.rotateLeft(h ^ Genome.mix(this.words[i] + i * 0x9E3779B97F4A7C15L), 27) * 0x94D049BB133111EBL;
+        return Genome.mix(h);
+    }
+
+    /*
+     * Method returns the SplitMix64 finaliser of the given value
+     */
+    private static long mix(long z){
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Method returns a copy of the packed words of this genome; bits beyond the length are
+     * always clear
+     *
+     * @returns array of packed words
+     */
+    public long[] toLongArray(){
+        return this.words.clone();
+    }
+
+    /**
+     * Method returns a read-only List view of this genome, for code written against the
+     * original ArrayList<Boolean> design vector. No bits are copied and the Boolean values
+     * returned are the two cached constants, so no allocation happens per element.
+     *
+     * @returns unmodifiable list backed by this genome
+     */
+    public List<Boolean> asList(){
+        return new AbstractList<Boolean>(){
+            @Override
+            public Boolean get(int index){
+                return Boolean.valueOf(Genome.this.get(index));
+            }
+
+            @Override
+            public int size(){
+                return Genome.this.length;
+            }
+        };
+    }
+
+    /**
+     * Method sets the bit at the given index to the given value
+     *
+     * @param index index of the bit
+     * @param value value to store
+     */
+    void set(int index, boolean value){
+        if (value)
+            this.words[index >>> 6] |= 1L << index;
+        else
+            this.words[index >>> 6] &= ~(1L << index);
+    }
+
+    /**
+     * Method inverts the bit at the given index
+     *
+     * @param index index of the bit
+     */
+    void flip(int index){
+        this.words[index >>> 6] ^= 1L << index;
+    }
+
+    /**
+     * Method returns the backing words of this genome, for the evolution kernels
+     *
+     * @returns the backing array (not a copy)
+     */
+    long[] words(){
+        return this.words;
+    }
+
+    /** {@InheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj instanceof Genome){
+            Genome other = (Genome) obj;
+            return this.length == other.length && Arrays.equals(this.words, other.words);
+        }
+        return false;
+    }
+
+    /** {@InheritDoc}
+     */
+    @Override
+    public int hashCode(){
+        return 31 * Arrays.hashCode(this.words) + this.length;
+    }
+}
@@ -0,0 +1,28 @@
+package ga;
+
+/**
+ * A Problem which can evaluate a design from the value of the design it was bred from and 
+ * the bits which differ between them. Evolution changes few bits when the mutation rate 
+ * is low and the parents are alike, so the cost of an evaluation can be made proportional 
+ * to the number of bits changed rather than to the length of the design.
+ * 
+ * Designs track the bits changed by crossover and mutation when their problem implements 
+ * this interface. A design whose parent was not evaluated, such as one of the initial 
+ * population, is evaluated in full with evaluateDouble(Design).
+ * 
+ * @author Matt Powell
+ * @version 1.0
+ */
+public interface IncrementalProblem extends DoubleProblem
+{
+    /**
+     * Method to evaluate the given Design from the value of the design it was bred from
+     * 
+     * @param  d   A Design containing the design to evaluate on this problem
+     * @param  parentValue   the evaluation of the design d was bred from
+     * @param  changed   the indices of the bits of d which differ from that design, in 
+     * increasing order; each now holds the opposite of its value in that design
+     * @return the evaluation of d, which must equal evaluateDouble(d)
+     */
+    double evaluateDelta(Design d, double parentValue, int[] changed);
+}
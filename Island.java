@@ -0,0 +1,139 @@
+ 
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Island holds the state of one sub-population of the island model: its own elite designs archive, which only the 
+ * members of the island insert into and select from, and a count of the evaluations its members have made, used to
+ * decide when the island sends migrants to other islands. With a single island the genetic algorithm behaves as 
+ * it does without the island model.
+ * 
+ * @author Matt Powell
+ * @version 1.0
+ */
+public class Island
+{
+    private final int index;
+    private final EliteArchive eliteDesigns;
+    private final AtomicLong evaluations = new AtomicLong();
+    private volatile SelectionStrategy selection = SelectionStrategy.UNIFORM;
+    private volatile int tournamentSize = 2;
+    
+    /**
+     * Constructs an island with an empty elite designs archive.
+     * 
+     * @param index index of this island
+     * @param eliteSize maximum number of elite designs held by this island
+     * @param pool DesignPool to recycle evicted designs into, or null
+     */
+    Island(int index, int eliteSize, DesignPool pool) {
+        this.index = index;
+        this.eliteDesigns = new EliteArchive(eliteSize, pool);
+    }
+
+    /**
+     * Method returns the index of this island.
+     * 
+     * @returns index of this island
+     */
+    public int getIndex(){
+        return this.index;
+    }
+
+    /**
+     * Method returns the elite designs archive of this island.
+     * 
+     * @returns EliteArchive of this island
+     */
+    public EliteArchive getEliteArchive(){
+        return this.eliteDesigns;
+    }
+
+    /**
+     * Method sets how crossover parents are selected from the elite designs archive of this island.
+     * 
+     * @param selection SelectionStrategy to select parents with
+     * @param tournamentSize number of designs drawn for each tournament, for SelectionStrategy.TOURNAMENT
+     */
+    public void setSelection(SelectionStrategy selection, int tournamentSize){
+        this.selection = selection;
+        this.tournamentSize = tournamentSize;
+    }
+
+    /**
+     * Method to add design into the elite designs archive of this island if it qualifies as an elite design.
+     * Readers of the archive never block, and writers only hold its lock briefly.
+     * 
+     * @param d Design to be added into the elite design archive
+     * @returns boolean true if the design was added to the elite designs archive
+     */
+    public boolean addEliteDesign(Design d){
+        // If the design passed in has not been evaluated, stop the worker offering it
+        if(d.isEvaluated() == false){
+            throw new IllegalStateException("Design has not been evaluated");
+        }
+        return this.eliteDesigns.offer(d);
+    }
+
+    /**
+     * Method to add design into the elite designs archive of this island as addEliteDesign(Design) does, for
+     * a worker which goes on to copy the design if it is added. A design which is added is pinned, so it is 
+     * not recycled by another thread evicting it, and must be passed to releaseEliteDesign once copied.
+     * 
+     * @param d Design to be added into the elite design archive
+     * @returns boolean true if the design was added, and so must be released
+     */
+    public boolean addEliteDesignPinned(Design d){
+        if(d.isEvaluated() == false){
+            throw new IllegalStateException("Design has not been evaluated");
+        }
+        return this.eliteDesigns.offer(d, true);
+    }
+
+    /**
+     * Method which returns a random design from the elite designs archive of this island, selected with the
+     * selection strategy of this island, or null if no design has been added to it yet. The design must be passed to releaseEliteDesign once the caller has 
+     * finished with it.
+     * 
+     * @returns Design random elite design
+     */
+    public Design getRandomEliteDesign(){
+        return this.eliteDesigns.select(this.selection, this.tournamentSize, null);
+    }
+
+    /**
+     * Method which returns a random design from the elite designs archive of this island as getRandomEliteDesign()
+     * does, choosing it with the given stream of random numbers.
+     * 
+     * @param rng stream of random numbers of the calling worker
+     * @returns Design random elite design
+     */
+    public Design getRandomEliteDesign(SplittableRandom rng){
+        return this.eliteDesigns.select(this.selection, this.tournamentSize, rng);
+    }
+
+    /**
+     * Method which releases a design returned by getRandomEliteDesign, or added by addEliteDesignPinned.
+     * 
+     * @param d Design returned by getRandomEliteDesign or added by addEliteDesignPinned
+     */
+    public void releaseEliteDesign(Design d){
+        this.eliteDesigns.release(d);
+    }
+
+    /**
+     * Method adds to the count of evaluations made by the members of this island, and returns whether
+     * the count has passed a multiple of the migration interval, in which case the island is due to 
+     * send migrants.
+     * 
+     * @param n number of evaluations made
+     * @param interval number of evaluations between migrations, or 0 if islands do not migrate
+     * @returns boolean true if a migration is due
+     */
+    public boolean countEvaluations(int n, long interval){
+        long before = this.evaluations.getAndAdd(n);
+        return interval > 0 && before / interval != (before + n) / interval;
+    }
+}
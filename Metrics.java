@@ -0,0 +1,409 @@
+ 
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+/**
+ * Metrics collects measurements of a run as it progresses: the evaluations made, the fitness of the elite designs,
+ * how often offered designs are accepted into the archive, how diverse the archive is, how long offers wait for the archive's lock, how the time
+ * of the workers is split between evaluating, copying and evolving designs, and how effective the fitness cache is.
+ * 
+ * The counters are LongAdders, which each thread updates in its own cell, so recording a measurement on the hot path 
+ * never contends with other workers. Values derived from the archive are only computed when they are read.
+ * 
+ * The metrics can be registered as an MXBean, and can be streamed to a file as one JSON object per line.
+ * 
+ * @author Matt Powell
+ * @version 1.0
+ */
+public class Metrics implements MetricsMXBean
+{
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final AtomicInteger runs = new AtomicInteger(); // runs registered in this JVM, to name them apart
+    private final GAData data;
+    private final FitnessCache cache; // cache whose hits are reported, or null
+    private final long start = System.nanoTime();
+    private final LongAdder offers = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder evaluateTime = new LongAdder();
+    private final LongAdder copyTime = new LongAdder();
+    private final LongAdder evolveTime = new LongAdder();
+    private Thread streamer;
+    private ObjectName name; // name registered under, or null if not registered
+    
+    /**
+     * Constructs the metrics of a run.
+     * 
+     * @param data GAData of the run
+     * @param cache FitnessCache of the run, or null if it has none
+     */
+    Metrics(GAData data, FitnessCache cache) {
+        this.data = data;
+        this.cache = cache;
+    }
+
+    /**
+     * Method records the outcome of offering a design to an elite designs archive.
+     * 
+     * @param accepted whether the archive kept the design
+     */
+    public void recordOffer(boolean accepted){
+        this.offers.increment();
+        if (accepted){
+            this.accepted.increment();
+        }
+    }
+
+    /**
+     * Method records time spent evaluating designs.
+     * 
+     * @param nanos time in nanoseconds
+     */
+    public void recordEvaluate(long nanos){
+        this.evaluateTime.add(nanos);
+    }
+
+    /**
+     * Method records time spent copying designs.
+     * 
+     * @param nanos time in nanoseconds
+     */
+    public void recordCopy(long nanos){
+        this.copyTime.add(nanos);
+    }
+
+    /**
+     * Method records time spent evolving designs.
+     * 
+     * @param nanos time in nanoseconds
+     */
+    public void recordEvolve(long nanos){
+        this.evolveTime.add(nanos);
+    }
+
+    /**
+     * Method registers these metrics with the platform MBean server, so they can be read with JConsole 
+     * or any other JMX client. Each run is registered as ga:type=Metrics,run=n, numbered from 0 in the
+     * order runs start. A failure to register is reported, and the run carries on without it.
+     */
+    public void register(){
+        try{
+            ObjectName name = new ObjectName("ga:type=Metrics,run=" + Metrics.runs.getAndIncrement());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            this.name = name;
+        } catch (JMException e){
+            System.out.println("Unable to register the metrics MXBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Method removes these metrics from the platform MBean server once the run has ended.
+     */
+    public void unregister(){
+        if (this.name == null){
+            return;
+        }
+        try{
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.name);
+        } catch (JMException e){
+            // Already unregistered
+        }
+        this.name = null;
+    }
+
+    /**
+     * Method starts a daemon thread which appends a line of JSON holding the current metrics to the 
+     * given file at the given interval, until stopStream is called.
+     * 
+     * @param file Path of the file, which is replaced
+     * @param interval time between lines, in milliseconds
+     * @throws IOException if the file cannot be created
+     */
+    public void startStream(Path file, long interval) throws IOException {
+        BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        this.streamer = new Thread(() -> {
+            try{
+                long lastTime = System.nanoTime();
+                long lastEvaluations = this.getEvaluations();
+                boolean stopping = false;
+                while (!stopping){
+                    try{
+                        Thread.sleep(interval);
+                    } catch (InterruptedException e){
+                        // Write a last line before stopping
+                        stopping = true;
+                    }
+                    // The rate in each line is over the interval since the previous line
+                    long time = System.nanoTime();
+                    long evaluations = this.getEvaluations();
+                    double rate = time > lastTime ? (evaluations - lastEvaluations) * 1e9 / (time - lastTime) : 0;
+                    writer.write(this.toJson(rate));
+                    writer.newLine();
+                    writer.flush();
+                    lastTime = time;
+                    lastEvaluations = evaluations;
+                }
+                writer.close();
+            } catch (IOException e){
+                System.out.println("Error writing metrics: " + e.getMessage());
+            }
+        }, "Metrics");
+        this.streamer.setDaemon(true);
+        this.streamer.start();
+    }
+
+    /**
+     * Method stops the stream started by startStream, once it has written a final line.
+     */
+    public void stopStream(){
+        if (this.streamer == null){
+            return;
+        }
+        this.streamer.interrupt();
+        try{
+            this.streamer.join();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Method returns the current metrics as a single line of JSON, with the given rate of evaluations
+     */
+    private String toJson(double rate){
+        double[] fitness = this.summariseFitness();
+        return String.format(Locale.ROOT, "{\"timeMillis\":%d,\"evaluations\":%d,\"evaluationsPerSecond\":%.1f,"
+            + "\"bestFitness\":%s,\"meanFitness\":%s,\"worstFitness\":%s,\"eliteSize\":%d,\"offers\":%d,"
+            + "\"acceptanceRate\":%.6f,\"archiveLockWaitMillis\":%d,\"distinctEliteGenomes\":%d,\"eliteDiversity\":%.6f,"
+            + "\"duplicateOffers\":%d,\"evaluateMillis\":%d,\"copyMillis\":%d,"
+            + "\"evolveMillis\":%d,\"cacheHits\":%d,\"cacheMisses\":%d,\"cacheHitRate\":%.6f}",
+            (System.nanoTime() - this.start) / NANOS_PER_MILLI, this.getEvaluations(), rate, 
+            Metrics.jsonNumber(fitness[0]), Metrics.jsonNumber(fitness[1]), Metrics.jsonNumber(fitness[2]), 
+            this.getEliteSize(), this.getOffers(), this.getAcceptanceRate(), this.getArchiveLockWaitMillis(), 
+            this.getDistinctEliteGenomes(), this.getEliteDiversity(), this.getDuplicateOffers(), this.getEvaluateMillis(), this.getCopyMillis(), this.getEvolveMillis(), this.getCacheHits(), 
+            this.getCacheMisses(), this.getCacheHitRate());
+    }
+
+    /*
+     * Method returns the JSON form of a fitness, which is null where JSON has no number for it
+     */
+    private static String jsonNumber(double value){
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.valueOf(value);
+    }
+
+    /*
+     * Method returns the best, mean and worst fitness over the archives of every island, or NaN for each 
+     * while they are empty
+     */
+    private double[] summariseFitness(){
+        double best = Double.NEGATIVE_INFINITY;
+        double worst = Double.POSITIVE_INFINITY;
+        double sum = 0;
+        int n = 0;
+        for (int i = 0; i < this.data.getIslandCount(); i++){
+            EliteArchive archive = this.data.getIsland(i).getEliteArchive();
+            double[] summary = archive.summariseFitness();
+            if (summary.length > 0){
+                int size = archive.size();
+                best = Math.max(best, summary[0]);
+                worst = Math.min(worst, summary[2]);
+                sum += summary[1] * size;
+                n += size;
+            }
+        }
+        if (n == 0){
+            return new double[] {Double.NaN, Double.NaN, Double.NaN};
+        }
+        return new double[] {best, sum / n, worst};
+    }
+
+    /**
+     * Method returns the evaluations reported to the budget so far, which trails the evaluations made by the
+     * blocks workers have not yet reported.
+     * 
+     * @returns number of evaluations reported since the start
+     */
+    public long getEvaluations(){
+        return this.data.getEvaluationCount();
+    }
+
+    /**
+     * Method returns the evaluations reported divided by the time since these metrics were created.
+     * 
+     * @returns mean evaluations per second since the start
+     */
+    public double getEvaluationsPerSecond(){
+        long elapsed = System.nanoTime() - this.start;
+        return elapsed > 0 ? this.getEvaluations() * 1e9 / elapsed : 0;
+    }
+
+    /**
+     * Method returns the best fitness over the archives of every island, taken without locking them.
+     * 
+     * @returns best elite fitness, or NaN while the archives are empty
+     */
+    public double getBestFitness(){
+        return this.summariseFitness()[0];
+    }
+
+    /**
+     * Method returns the mean fitness over the archives of every island, each weighted by its size.
+     * 
+     * @returns mean elite fitness, or NaN while the archives are empty
+     */
+    public double getMeanFitness(){
+        return this.summariseFitness()[1];
+    }
+
+    /**
+     * Method returns the worst fitness over the archives of every island, read from the roots of their heaps.
+     * 
+     * @returns worst elite fitness, or NaN while the archives are empty
+     */
+    public double getWorstFitness(){
+        return this.summariseFitness()[2];
+    }
+
+    /**
+     * Method returns the number of designs held by the archives of every island.
+     * 
+     * @returns total number of elite designs
+     */
+    public int getEliteSize(){
+        return this.data.getEliteDesignsArraySize();
+    }
+
+    /**
+     * Method returns the number of offers recorded since the start.
+     * 
+     * @returns number of offers to the archives
+     */
+    public long getOffers(){
+        return this.offers.sum();
+    }
+
+    /**
+     * Method returns the fraction of the offers recorded since the start which were accepted.
+     * 
+     * @returns acceptance rate on the range [0,1], or 0 before any offer
+     */
+    public double getAcceptanceRate(){
+        long offers = this.offers.sum();
+        return offers > 0 ? (double) this.accepted.sum() / offers : 0;
+    }
+
+    /**
+     * Method returns the nanoseconds offers have waited for the lock of each archive, summed and converted to
+     * milliseconds.
+     * 
+     * @returns milliseconds waited for archive locks since the start, over all threads
+     */
+    public long getArchiveLockWaitMillis(){
+        long wait = 0;
+        for (int i = 0; i < this.data.getIslandCount(); i++){
+            wait += this.data.getIsland(i).getEliteArchive().getLockWait();
+        }
+        return wait / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Method returns the distinct genomes counted by the index of each archive, summed over the islands.
+     * 
+     * @returns number of distinct elite genomes
+     */
+    public int getDistinctEliteGenomes(){
+        int distinct = 0;
+        for (int i = 0; i < this.data.getIslandCount(); i++){
+            distinct += this.data.getIsland(i).getEliteArchive().distinct();
+        }
+        return distinct;
+    }
+
+    /**
+     * Method returns the distinct elite genomes divided by the elite designs held.
+     * 
+     * @returns diversity on the range [0,1], or 0 while the archives are empty
+     */
+    public double getEliteDiversity(){
+        int size = this.getEliteSize();
+        return size > 0 ? (double) this.getDistinctEliteGenomes() / size : 0;
+    }
+
+    /**
+     * Method returns the offers of a genome already held, summed over the archives of every island.
+     * 
+     * @returns number of duplicate offers since the start
+     */
+    public long getDuplicateOffers(){
+        long duplicates = 0;
+        for (int i = 0; i < this.data.getIslandCount(); i++){
+            duplicates += this.data.getIsland(i).getEliteArchive().getDuplicateOffers();
+        }
+        return duplicates;
+    }
+
+    /**
+     * Method returns the nanoseconds recorded for evaluating designs, converted to milliseconds.
+     * 
+     * @returns milliseconds spent evaluating since the start, over all threads
+     */
+    public long getEvaluateMillis(){
+        return this.evaluateTime.sum() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Method returns the nanoseconds recorded for copying designs, converted to milliseconds.
+     * 
+     * @returns milliseconds spent copying since the start, over all threads
+     */
+    public long getCopyMillis(){
+        return this.copyTime.sum() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Method returns the nanoseconds recorded for evolving designs, converted to milliseconds.
+     * 
+     * @returns milliseconds spent evolving since the start, over all threads
+     */
+    public long getEvolveMillis(){
+        return this.evolveTime.sum() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Method returns the hits counted by the fitness cache.
+     * 
+     * @returns number of cache hits since the start, or 0 without a cache
+     */
+    public long getCacheHits(){
+        return this.cache == null ? 0 : this.cache.getHits();
+    }
+
+    /**
+     * Method returns the misses counted by the fitness cache.
+     * 
+     * @returns number of cache misses since the start, or 0 without a cache
+     */
+    public long getCacheMisses(){
+        return this.cache == null ? 0 : this.cache.getMisses();
+    }
+
+    /**
+     * Method returns the cache hits divided by the cache lookups.
+     * 
+     * @returns hit rate on the range [0,1], or 0 before any lookup
+     */
+    public double getCacheHitRate(){
+        long lookups = this.getCacheHits() + this.getCacheMisses();
+        return lookups > 0 ? (double) this.getCacheHits() / lookups : 0;
+    }
+}
@@ -0,0 +1,156 @@
+ 
+
+
+/**
+ * MetricsMXBean is the management interface through which the progress of a run is exposed over JMX, 
+ * under the name ga:type=Metrics,run=n. Counts and times are totals since the run started, not per interval, and
+ * times are summed over all threads, in milliseconds, so they can exceed the time elapsed.
+ * 
+ * @author Matt Powell
+ * @version 1.0
+ */
+public interface MetricsMXBean
+{
+    /**
+     * Method returns the number of function evaluations reported by the workers since the run started. Workers
+     * report evaluations a block at a time, so the count can trail the evaluations made by up to a block per
+     * worker.
+     * 
+     * @returns number of evaluations reported
+     */
+    long getEvaluations();
+
+    /**
+     * Method returns the mean rate of evaluations since the metrics were created, that is the evaluations
+     * reported divided by the time elapsed.
+     * 
+     * @returns evaluations per second since the start of the run
+     */
+    double getEvaluationsPerSecond();
+
+    /**
+     * Method returns the best fitness held by the elite designs archive of any island, or NaN while they are
+     * empty.
+     * 
+     * @returns best elite fitness
+     */
+    double getBestFitness();
+
+    /**
+     * Method returns the mean fitness of the designs held by the elite designs archives of every island, or NaN
+     * while they are empty.
+     * 
+     * @returns mean elite fitness
+     */
+    double getMeanFitness();
+
+    /**
+     * Method returns the worst fitness held by the elite designs archive of any island, or NaN while they are
+     * empty.
+     * 
+     * @returns worst elite fitness
+     */
+    double getWorstFitness();
+
+    /**
+     * Method returns the number of designs held by the elite designs archives of every island.
+     * 
+     * @returns number of elite designs
+     */
+    int getEliteSize();
+
+    /**
+     * Method returns the number of designs offered to the elite designs archives since the run started.
+     * 
+     * @returns number of offers
+     */
+    long getOffers();
+
+    /**
+     * Method returns the fraction of the designs offered to the elite designs archives since the run started
+     * which were kept, or 0 before any are offered.
+     * 
+     * @returns fraction of offers accepted, on the range [0,1]
+     */
+    double getAcceptanceRate();
+
+    /**
+     * Method returns the total time offers have waited for the lock of an elite designs archive since the run
+     * started, summed over every thread, in milliseconds.
+     * 
+     * @returns milliseconds spent waiting for archive locks
+     */
+    long getArchiveLockWaitMillis();
+
+    /**
+     * Method returns the number of distinct genomes held by the elite designs archives, summed over the islands,
+     * so a genome held on two islands counts twice.
+     * 
+     * @returns number of distinct elite genomes
+     */
+    int getDistinctEliteGenomes();
+
+    /**
+     * Method returns the fraction of the elite designs whose genomes are distinct, which is 1 unless duplicates
+     * are allowed, or 0 while the archives are empty.
+     * 
+     * @returns distinct elite genomes as a fraction of the elite designs, on the range [0,1]
+     */
+    double getEliteDiversity();
+
+    /**
+     * Method returns the number of offers since the run started of a design whose genome the archive already
+     * held.
+     * 
+     * @returns number of duplicate offers
+     */
+    long getDuplicateOffers();
+
+    /**
+     * Method returns the total time workers have spent evaluating designs since the run started, summed over
+     * every thread, in milliseconds.
+     * 
+     * @returns milliseconds spent evaluating
+     */
+    long getEvaluateMillis();
+
+    /**
+     * Method returns the total time workers have spent copying designs since the run started, summed over every
+     * thread, in milliseconds.
+     * 
+     * @returns milliseconds spent copying
+     */
+    long getCopyMillis();
+
+    /**
+     * Method returns the total time workers have spent evolving designs by crossover and mutation since the run
+     * started, summed over every thread, in milliseconds.
+     * 
+     * @returns milliseconds spent evolving
+     */
+    long getEvolveMillis();
+
+    /**
+     * Method returns the number of fitness cache lookups which found a value since the run started, or 0 if the
+     * run has no cache.
+     * 
+     * @returns number of cache hits
+     */
+    long getCacheHits();
+
+    /**
+     * Method returns the number of fitness cache lookups which did not find a value since the run started, or 0
+     * if the run has no cache.
+     * 
+     * @returns number of cache misses
+     */
+    long getCacheMisses();
+
+    /**
+     * Method returns the fraction of fitness cache lookups since the run started which found a value, or 0
+     * before any lookup or if the run has no cache.
+     * 
+     * @returns fraction of lookups which hit, on the range [0,1]
+     */
+    double getCacheHitRate();
+}
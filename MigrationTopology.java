@@ -0,0 +1,25 @@
+ 
+
+/**
+ * MigrationTopology sets which islands receive the designs migrating from an island in the island model.
+ * 
+ * @author Matt Powell
+ * @version 1.0
+ */
+public enum MigrationTopology
+{
+    /**
+     * Islands form a ring, and each sends its migrants to the next island
+     */
+    RING,
+
+    /**
+     * Each island sends its migrants to every other island
+     */
+    FULL,
+
+    /**
+     * Each island sends its migrants to another island chosen at random at each migration
+     */
+    RANDOM
+}
@@ -1,94 +1,453 @@
  
 
 import java.util.Collections;
-import java.util.ConcurrentModificationException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.io.*;
+import java.nio.file.Paths;
 
 /**
- * MultiThreadedGeneticAlgorithm implements a multi threaded version of the genetic algorithm. Each thread manages a design
- * which is evaluated, and if good enough, added into a group of elite design solutions. A random design is then drawn from
- * this elite group and the design held by the thread is crossed over with this design to create a new design. The process
+ * MultiThreadedGeneticAlgorithm implements a multi threaded version of the genetic algorithm. Each member of the population 
+ * manages a design which is evaluated, and if good enough, added into a group of elite design solutions. A design is then 
+ * selected from this elite group, uniformly at random or by the strategy given with --selection, and the design held by the 
+ * member is crossed over with this design to create a new design. 
+ * Members are run as tasks by an ExecutionEngine, so the number of threads does not depend on the population size. The process
  * is repeated until the specified number of overall evaluations has been met, at which point the values of the elite 
  * designs are printed to a txt file (ordered best to worst) and the array holding the elite designs is serialized.
  * 
+ * The algorithm can also be embedded: construct an instance with a Problem and the same arguments and options as the
+ * command line, and call start, which returns a GAResult holding the elite designs once the run completes. Each run
+ * joins its worker threads before completing, so runs can be made back to back in the same JVM.
+ * 
+ * Every random number of a run is drawn from streams split off one master stream, one per member, so a run given a 
+ * seed with --seed draws the same numbers each time. Members still run in whatever order the threads reach them, so 
+ * for the same results on every run --schedule=lockstep evolves the members in rounds: each round the members evaluate 
+ * their designs in parallel, offer them to the archive one member at a time in a fixed order, then evolve them in 
+ * parallel again. The results then depend only on the seed, not on the number of threads.
+ * 
+ * Populations too large for the heap can be held in a memory-mapped PopulationStore with --store. Each member then 
+ * owns a range of slots of the store, and steps through them a batch at a time, reading each batch into the few 
+ * designs it keeps and writing them back once evolved.
+ * 
+ * Two other forms of the algorithm can be chosen with --mode: a generational algorithm, run by a GenerationalEngine, 
+ * which evaluates and breeds the whole population a generation at a time, and a steady-state algorithm, in which 
+ * members breed each child from two elite parents, so the elite designs archive acts as the population.
+ * 
+ * On machines with several NUMA nodes, --affinity=node pins the threads of each island to the CPUs of one node, so
+ * each group of workers stays on one socket with its own elite designs archive. Unless the options say otherwise, 
+ * there is then an island per node, and every island sends its whole archive to the others at each migration, so 
+ * the archives act as socket-local replicas of one archive, synchronised each migration interval.
+ * 
+ * The crossover and mutation rates given are fixed, unless --rates=adaptive is given, in which case the mutation rate
+ * starts from the rate given and follows the 1/5th success rule on the fraction of offers the archives accept.
+ * 
  * @author Matt Powell
  * @version 1.0
  */
 public class MultiThreadedGeneticAlgorithm implements Serializable
 {
-    private static GAData data;
-    private static int populationSize;
-    private static int eliteSize;
-    private static double crossoverRate;
-    private static double mutationRate;
-    private static int functionEvaluations;
+    private static final long CHECKPOINT_POLL = 100; // milliseconds between checks of the checkpoint interval
+    private static final int MEMBERS_PER_THREAD = 4; // members per thread when the population is held in a store
+    private final Problem problem;
+    private final int populationSize;
+    private final int eliteSize;
+    private final double crossoverRate;
+    private final double mutationRate;
+    private final int functionEvaluations;
+    private EvolutionKernel kernel = EvolutionKernel.BITWISE;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean virtualThreads = false;
+    private int poolSize = 0;
+    private int batchSize = 1;
+    private int cacheMegabytes = 0;
+    private boolean cacheHitsCounted = true;
+    private int islandCount = 1;
+    private MigrationTopology topology = MigrationTopology.RING;
+    private int migrationInterval = 1000;
+    private int migrants = 1;
+    private int servePort = 0;
+    private String serveAddress; // address to listen for evaluation workers on, or null for the loopback address
+    private int[] stageThreads; // threads of the variation, evaluation and insertion stages, or null for members
+    private int queueDepth = 64;
+    private long checkpointInterval = 0; // evaluations between checkpoints, 0 for none
+    private String checkpointFile = "checkpoint.bin";
+    private String resumeFile;
+    private String metricsFile; // file the metrics are streamed to, or null for none
+    private int metricsInterval = 1000;
+    private Long seed; // seed of the master random number stream, or null to seed it at random
+    private boolean lockstep = false; // whether members are evolved in rounds, for reproducible runs
+    private String storeFile; // file the population is held in, or null to hold it on the heap
+    private SelectionStrategy selection = SelectionStrategy.UNIFORM;
+    private int tournamentSize = 2;
+    private EngineMode mode = EngineMode.ASYNC;
+    private boolean allowDuplicates = false; // whether the archive accepts a genome it already holds
+    private List<String> affinityNodes; // CPU list of each NUMA node the islands are pinned to, or null
+    private final Set<String> given = new HashSet<String>(); // names of the options given
+    private boolean adaptiveRates = false; // whether the mutation rate follows the 1/5th success rule
+    private int rateWindow; // offers between adjustments of the rates, the population size unless given
+    private String rateFile; // file the trajectory of the rates is recorded in, or null for none
+    // State of the run, created by start
+    private GAData data;
+    private FitnessCache cache;
+    private PopulationStore store;
+    private ExecutionEngine[] engines;
+    private EvaluationServer server;
+    private Pipeline pipeline;
+    private GenerationalEngine generational;
+    private Member[] members;
+    private Metrics metrics;
+    private RateController rates;
+    private SplittableRandom master; // stream every other random number stream of the run is split from
+    private Coordinator coordinator;
+    private GAResult result;
+    private volatile Throwable failure; // exception which stopped a worker, if any
 
     public static void main (String[] args){
-        Design d;
         // Check that we have the correct number of arguments being passed in
-        if (args.length != 6){
+        if (args.length < 6){
             MultiThreadedGeneticAlgorithm.error("Please enter the problem name, population number, elitist set size, "
-                + "crossover probability, mutation probability, and the number of evaluations.");  
+                + "crossover probability, mutation probability, and the number of evaluations, followed by any "
+                + "of these options:"
+                + "\n  --kernel=bitwise|word"
+                + "\n  --threads=n"
+                + "\n  --executor=pool|virtual"
+                + "\n  --pool=n"
+                + "\n  --batch=n"
+                + "\n  --cache=megabytes"
+                + "\n  --cache-hits=count|free"
+                + "\n  --islands=n"
+                + "\n  --migration=ring|full|random"
+                + "\n  --migration-interval=n"
+                + "\n  --migrants=n"
+                + "\n  --serve=[address:]port"
+                + "\n  --pipeline=variation,evaluation,insertion"
+                + "\n  --queue-depth=n"
+                + "\n  --checkpoint=n"
+                + "\n  --checkpoint-file=path"
+                + "\n  --resume=path"
+                + "\n  --metrics=path"
+                + "\n  --metrics-interval=ms"
+                + "\n  --seed=n"
+                + "\n  --schedule=async|lockstep"
+                + "\n  --store=path"
+                + "\n  --selection=uniform|tournament|rank|roulette"
+                + "\n  --tournament-size=k"
+                + "\n  --mode=async|generational|steady"
+                + "\n  --duplicates=reject|allow"
+                + "\n  --affinity=none|node"
+                + "\n  --rates=fixed|adaptive"
+                + "\n  --rate-window=n"
+                + "\n  --rate-file=path");
         }
 
         // Check the arguments are of the correct type
-        populationSize = MultiThreadedGeneticAlgorithm.checkInt(args, 1);
-        eliteSize = MultiThreadedGeneticAlgorithm.checkInt(args, 2);
-        crossoverRate = MultiThreadedGeneticAlgorithm.checkDouble(args, 3);
-        mutationRate = MultiThreadedGeneticAlgorithm.checkDouble(args, 4);
-        functionEvaluations = MultiThreadedGeneticAlgorithm.checkInt(args, 5);
+        int populationSize = MultiThreadedGeneticAlgorithm.checkInt(args, 1);
+        int eliteSize = MultiThreadedGeneticAlgorithm.checkInt(args, 2);
+        double crossoverRate = MultiThreadedGeneticAlgorithm.checkDouble(args, 3);
+        double mutationRate = MultiThreadedGeneticAlgorithm.checkDouble(args, 4);
+        int functionEvaluations = MultiThreadedGeneticAlgorithm.checkInt(args, 5);
+
+        // Try to create and instantiate new Problem class as defined by args[0], and set up the algorithm with 
+        // it, reading any options given after the required arguments
+        GAResult result = null;
+        try {
+            Problem genericProblem = Helper.getProblem(args[0]);
+            if(genericProblem == null){
+                throw new GAInitiationException("Problem has not been instantiated.");
+            }
+            MultiThreadedGeneticAlgorithm ga = new MultiThreadedGeneticAlgorithm(genericProblem, populationSize, eliteSize, 
+                crossoverRate, mutationRate, functionEvaluations, Arrays.copyOfRange(args, 6, args.length));
+            result = ga.start();
+        } catch(GAInitiationException e){
+            // If an exception is caught, print error message and exit the system
+            System.out.println(e);
+            System.exit(1);
+        } catch(IllegalArgumentException e){
+            MultiThreadedGeneticAlgorithm.error(e.getMessage());
+        }
+
+        // Wait for the run to complete, with the elite designs stored best to worst
+        List<Design> results = null;
+        try{
+            results = result.get();
+        } catch(InterruptedException e){
+            MultiThreadedGeneticAlgorithm.error("Error whilst waiting for design solutions to be updated.");
+        } catch(ExecutionException e){
+            MultiThreadedGeneticAlgorithm.error("The run failed: " + e.getCause());
+        }
+
+        try{
+            // Write to results.txt file
+            BufferedWriter writer = new BufferedWriter(new FileWriter("results.txt"));
+            for (int i = 0; i < results.size(); i++){
+                // Write each value on a new line
+                writer.write(String.valueOf(results.get(i).getFitness()));
+                writer.newLine();
+                writer.flush();
+            }
+            writer.close();
+
+            // Write array to designs.ser serialized file
+            FileOutputStream output = new FileOutputStream("designs.ser");
+            ObjectOutputStream serializedOutput = new ObjectOutputStream(output);
+            serializedOutput.writeObject(new ArrayList<Design>(results));
+            serializedOutput.close();
+            output.close();
+        } catch (IOException e) {
+            // If an IOException is caught, print error message to screen and exit the system
+            MultiThreadedGeneticAlgorithm.error("Error writing to results.txt or writing serialized file.");
+        } 
+        // The worker threads have all stopped, so the program ends here with a successful exit code
+    }
+
+    /**
+     * Constructs the genetic algorithm for the given problem. The options are those accepted on the command
+     * line, each of the form --name=value.
+     * 
+     * @param problem Problem to be solved
+     * @param populationSize number of designs in the population
+     * @param eliteSize number of elite designs kept
+     * @param crossoverRate probability of crossover, on the range [0,1]
+     * @param mutationRate probability of mutation, on the range [0,1]
+     * @param functionEvaluations number of evaluations the run makes
+     * @param options further options, such as --threads=4
+     * @throws IllegalArgumentException if an argument or option is out of range or not recognised
+     */
+    public MultiThreadedGeneticAlgorithm(Problem problem, int populationSize, int eliteSize, double crossoverRate, 
+            double mutationRate, int functionEvaluations, String... options){
+        this.problem = problem;
+        this.populationSize = populationSize;
+        this.eliteSize = eliteSize;
+        this.crossoverRate = crossoverRate;
+        this.mutationRate = mutationRate;
+        this.functionEvaluations = functionEvaluations;
+        this.rateWindow = populationSize;
+        // Read any options given after the required arguments
+        this.parseOptions(options);
+
+        // With affinity, default to an island per NUMA node, each replicating the whole archive to the others
+        if (affinityNodes != null){
+            if (!given.contains("islands")){
+                islandCount = Math.max(1, Math.min(affinityNodes.size(), populationSize));
+            }
+            if (!given.contains("migration")){
+                topology = MigrationTopology.FULL;
+            }
+            if (!given.contains("migrants")){
+                migrants = Math.max(1, eliteSize);
+            }
+        }
 
         // Check arguments are in the defined legal range
         if(populationSize < 1){
-            MultiThreadedGeneticAlgorithm.error("The population size must be greater than or equal to 1.");
+            throw new IllegalArgumentException("The population size must be greater than or equal to 1.");
         }
 
         if(eliteSize < 1){
-            MultiThreadedGeneticAlgorithm.error("The size of the elitist group must be greater than or equal to 1.");
+            throw new IllegalArgumentException("The size of the elitist group must be greater than or equal to 1.");
         }
 
         if(crossoverRate < 0 || crossoverRate > 1){
-            MultiThreadedGeneticAlgorithm.error("The crossover rate must be on the range [0,1].");
+            throw new IllegalArgumentException("The crossover rate must be on the range [0,1].");
         }
 
         if(mutationRate < 0 || mutationRate > 1){
-            MultiThreadedGeneticAlgorithm.error("The mutation rate must be on the range [0,1].");
+            throw new IllegalArgumentException("The mutation rate must be on the range [0,1].");
+        }
+
+        if(islandCount > populationSize){
+            throw new IllegalArgumentException("The number of islands must not be greater than the population size.");
+        }
+
+        if(stageThreads != null && islandCount > 1){
+            throw new IllegalArgumentException("The pipeline can only be used with a single island.");
+        }
+
+        if(lockstep && stageThreads != null){
+            throw new IllegalArgumentException("The lockstep schedule cannot be used with the pipeline.");
+        }
+
+        if(storeFile != null && stageThreads != null){
+            throw new IllegalArgumentException("The population store cannot be used with the pipeline.");
+        }
+
+        if(mode != EngineMode.ASYNC && stageThreads != null){
+            throw new IllegalArgumentException("The pipeline can only be used in the async mode.");
+        }
+
+        if(mode == EngineMode.GENERATIONAL && (islandCount > 1 || storeFile != null || lockstep)){
+            throw new IllegalArgumentException("The generational mode cannot be used with islands, the population store or the lockstep schedule.");
+        }
+
+        if(mode == EngineMode.GENERATIONAL && cacheMegabytes > 0 && !cacheHitsCounted){
+            throw new IllegalArgumentException("The generational mode cannot be used with free cache hits.");
+        }
+
+        if(affinityNodes != null && (stageThreads != null || mode == EngineMode.GENERATIONAL)){
+            throw new IllegalArgumentException("Affinity can only be used with members, not with the pipeline or the generational mode.");
+        }
+
+        if(lockstep && cacheMegabytes > 0 && !cacheHitsCounted){
+            throw new IllegalArgumentException("The lockstep schedule cannot be used with free cache hits, as whether a design is found in the cache depends on timing.");
         }
 
         if(functionEvaluations < eliteSize){
-            MultiThreadedGeneticAlgorithm.error("The number of problem evaluations to be run must be greater than or equal to the size of the elitist group.");
+            throw new IllegalArgumentException("The number of problem evaluations to be run must be greater than or equal to the size of the elitist group.");
         }
+    }
 
-        // Try to create and instantiate new Problem class as defined by args[0]
-        try {
-            Problem genericProblem = Helper.getProblem(args[0]);
-            if(genericProblem == null){
-                throw new GAInitiationException("Problem has not been instantiated.");
+    /**
+     * Method starts the run in the background and returns at once. The result completes once every function 
+     * evaluation has been made, or the run is cancelled or fails, and the threads of the run have stopped. An
+     * instance can only be started once.
+     * 
+     * @returns GAResult through which the elite designs of the run are returned
+     * @throws GAInitiationException if the run cannot be set up
+     */
+    public synchronized GAResult start() throws GAInitiationException {
+        if (this.result != null){
+            throw new IllegalStateException("The genetic algorithm has already been started.");
+        }
+        // Instantiate a GAdata class with the corresponding details
+        // Designs are only recycled when a design pool size has been given
+        DesignPool pool = poolSize > 0 ? new DesignPool(poolSize) : null;
+        data = new GAData(populationSize, eliteSize, crossoverRate, mutationRate, functionEvaluations, problem, pool, 
+            islandCount);
+        data.setMigration(topology, migrationInterval, migrants);
+        data.setSelection(selection, tournamentSize);
+        data.setAllowDuplicates(allowDuplicates);
+
+        // Restore the state saved in a checkpoint, if resuming, starting from its population. A resumed run 
+        // carries on from the seed saved in the checkpoint, unless given its own
+        int resumed = 0;
+        List<Design> saved = Collections.emptyList();
+        master = seed != null ? new SplittableRandom(seed) : new SplittableRandom();
+        if (resumeFile != null){
+            try{
+                Checkpoint checkpoint = Checkpoint.read(Paths.get(resumeFile), data.getProblem());
+                checkpoint.restore(data);
+                if (seed == null){
+                    master = new SplittableRandom(checkpoint.getSeed());
+                }
+                saved = checkpoint.getPopulation();
+                resumed = Math.min(saved.size(), populationSize);
+                System.out.println("Resumed from " + resumeFile + " after " + checkpoint.getEvaluations() + " evaluations.");
+            } catch (IOException e){
+                throw new GAInitiationException("Unable to resume from " + resumeFile + ": " + e.getMessage());
             }
-            // Instantiate a GAdata class with the corresponding details
-            data = new GAData(populationSize, eliteSize, crossoverRate, mutationRate, functionEvaluations, genericProblem);
-        } catch(GAInitiationException e){
-            // If an exception is caught, print error message and exit the system
-            System.out.println(e);
-            System.exit(1);
-        } 
+        }
 
         // Instantiate appropriate number of design solutions
-        // Add these soutions into the Design array, stored in the data class
+        // Add these soutions into the Design array, stored in the data class, or write them into the 
+        // population store if one has been given
+        int length;
         try {
-            for (int i = 0; i < populationSize; i++){
-                d = new Design(data.getProblem());
-                data.addDesign(d);
+            SplittableRandom init = master.split();
+            Design first = resumed > 0 ? saved.get(0) : new Design(data.getProblem(), init);
+            length = first.getGenome().length();
+            if (storeFile != null){
+                store = new PopulationStore(Paths.get(storeFile), populationSize, first.getGenome().length());
+                for (int i = 0; i < populationSize; i++){
+                    store.write(i, i == 0 ? first : i < resumed ? saved.get(i) : new Design(data.getProblem(), init));
+                }
+            } else {
+                for (int i = 0; i < populationSize; i++){
+                    data.addDesign(i == 0 ? first : i < resumed ? saved.get(i) : new Design(data.getProblem(), init));
+                }
             }
+        } catch (IOException e){
+            throw new GAInitiationException("Unable to create the population store " + storeFile + ": " + e.getMessage());
+        } catch (IllegalArgumentException e){
+            this.closeStore();
+            throw new GAInitiationException("Unable to resume into the population store: " + e.getMessage());
         } catch (OutOfMemoryError e){
-            // If the system runs out of memory, print error and exit system
-            MultiThreadedGeneticAlgorithm.error("Please enter a smaller integer for the population size. The system is out of memory.");
+            // If the system runs out of memory, give up on the run
+            throw new GAInitiationException("Please enter a smaller integer for the population size. The system is out of memory.");
+        }
+
+        // Create the fitness cache, if a size has been given
+        if (cacheMegabytes > 0){
+            cache = new FitnessCache(cacheMegabytes, cacheHitsCounted, functionEvaluations);
+        }
+
+        // Collect metrics of the run, exposing them over JMX and streaming them to a file if one has been given
+        metrics = new Metrics(data, cache);
+        metrics.register();
+        if (metricsFile != null){
+            try{
+                metrics.startStream(Paths.get(metricsFile), metricsInterval);
+            } catch (IOException e){
+                metrics.unregister();
+                this.closeStore();
+                throw new GAInitiationException("Unable to write metrics to " + metricsFile + ": " + e.getMessage());
+            }
+        }
+
+        // Control the crossover and mutation rates, adapting them to the run if asked, and record their 
+        // trajectory if a file has been given
+        rates = new RateController(data, crossoverRate, mutationRate, adaptiveRates, rateWindow, length);
+        if (rateFile != null){
+            try{
+                rates.startTrajectory(Paths.get(rateFile));
+            } catch (IOException e){
+                metrics.stopStream();
+                metrics.unregister();
+                this.closeStore();
+                throw new GAInitiationException("Unable to write the rate trajectory to " + rateFile + ": " + e.getMessage());
+            }
+        }
+
+        // Listen for evaluation workers, if a port has been given, so that designs are evaluated by them
+        if (servePort > 0){
+            try{
+                server = new EvaluationServer(serveAddress, servePort, data.getProblem().getClass().getName());
+                System.out.println("Waiting for evaluation workers on " + server.getAddress() + " port " + server.getPort() + ".");
+            } catch (IOException e){
+                metrics.stopStream();
+                metrics.unregister();
+                rates.closeTrajectory();
+                this.closeStore();
+                throw new GAInitiationException("Unable to listen for evaluation workers on port " + servePort + ": " + e.getMessage());
+            }
         }
 
         // Start threads
-        (new MultiThreadedGeneticAlgorithm()).runAlgorithm();
+        result = new GAResult(this::stop);
+        this.runAlgorithm();
+        return result;
+    }
+
+    /*
+     * Method closes the population store, if the population is held in one
+     */
+    private void closeStore(){
+        if (store != null){
+            store.close();
+        }
+    }
+
+    /*
+     * Method asks the run to stop; workers stop at their next step, after which the result completes
+     */
+    private void stop(){
+        data.stop();
+    }
 
+    /*
+     * Method records the exception which stopped a worker, and stops the run, which then completes with 
+     * the exception as its failure
+     */
+    private void fail(Throwable e){
+        if (failure == null){
+            failure = e;
+        }
+        data.stop();
     }
 
     /**
@@ -135,6 +494,256 @@ public class MultiThreadedGeneticAlgorithm implements Serializable
         return 0;
     }
 
+    /**
+     * Method to read the optional arguments, of the form --name=value. If an option is not recognised
+     * or its value is invalid, it throws an exception describing the error.
+     * 
+     * @param options string array which contains the options
+     * @throws IllegalArgumentException if an option is not valid
+     */
+    private void parseOptions(String[] options){
+        for (String option: options){
+            int split = option.indexOf('=');
+            if (!option.startsWith("--") || split < 0){
+                throw new IllegalArgumentException(option + " is not an option of the form --name=value.");
+            }
+            String name = option.substring(2, split);
+            String value = option.substring(split + 1);
+            given.add(name);
+            switch (name){
+                case "kernel":
+                    try{
+                        kernel = EvolutionKernel.valueOf(value.toUpperCase());
+                    } catch(IllegalArgumentException e){
+                        throw new IllegalArgumentException(value + " is not an evolution kernel, use bitwise or word.");
+                    }
+                    break;
+                case "threads":
+                    threads = MultiThreadedGeneticAlgorithm.checkIntOption(name, value);
+                    if (threads < 1){
+                        throw new IllegalArgumentException("The number of threads must be greater than or equal to 1.");
+                    }
+                    break;
+                case "executor":
+                    if (value.equals("pool")){
+                        virtualThreads = false;
+                    } else if (value.equals("virtual")){
+                        virtualThreads = true;
+                    } else {
+                        throw new IllegalArgumentException(value + " is not an executor, use pool or virtual.");
+                    }
+                    break;
+                case "pool":
+                    poolSize = MultiThreadedGeneticAlgorithm.checkIntOption(name, value);
+                    if (poolSize < 0){
+                        throw new IllegalArgumentException("The design pool size must be greater than or equal to 0.");
+                    }
+                    break;
+                case "batch":
+                    batchSize = MultiThreadedGeneticAlgorithm.checkIntOption(name, value);
+                    if (batchSize < 1){
+                        throw new IllegalArgumentException("The batch size must be greater than or equal to 1.");
+                    }
+                    break;
+                case "cache":
+                    cacheMegabytes = MultiThreadedGeneticAlgorithm.checkIntOption(name, value);
+                    if (cacheMegabytes < 0){
+                        throw new IllegalArgumentException("The fitness cache size must be greater than or equal to 0.");
+                    }
+                    break;
+                case "cache-hits":
+                    if (value.equals("count")){
+                        cacheHitsCounted = true;
+                    } else if (value.equals("free")){
+                        cacheHitsCounted = false;
+                    } else {
+                        throw new IllegalArgumentException(value + " is not a cache hit policy, use count or free.");
+                    }
+                    break;
+                case "islands":
+                    islandCount = MultiThreadedGeneticAlgorithm.checkIntOption(name, value);
+                    if (islandCount < 1){
+                        throw new IllegalArgumentException("The number of islands must be greater than or equal to 1.");
+                    }
+                    break;
+                case "migration":
+                    try{
+                        topology = MigrationTopology.valueOf(value.toUpperCase());
+                    } catch(IllegalArgumentException e){
+                        throw new IllegalArgumentException(value + " is not a migration topology, use ring, full or random.");
+                    }
+                    break;
+                case "migration-interval":
+                    migrationInterval = MultiThreadedGeneticAlgorithm.checkIntOption(name, value);
+                    if (migrationInterval < 0){
+                        throw new IllegalArgumentException("The migration interval must be greater than or equal to 0.");
+                    }
+                    break;
+                case "migrants":
+                    migrants = MultiThreadedGeneticAlgorithm.checkIntOption(name, value);
+                    if (migrants < 1){
+                        throw new IllegalArgumentException("The number of migrants must be greater than or equal to 1.");
+                    }
+                    break;
+                case "serve":
+                    // Workers are only accepted from this machine unless an address to listen on is given
+                    int colon = value.lastIndexOf(':');
+                    if (colon >= 0){
+                        serveAddress = value.substring(0, colon);
+                        if (serveAddress.startsWith("[") && serveAddress.endsWith("]")){
+                            serveAddress = serveAddress.substring(1, serveAddress.length() - 1);
+                        }
+                        if (serveAddress.isEmpty()){
+                            throw new IllegalArgumentException("The address to serve evaluation workers on must not be empty.");
+                        }
+                        value = value.substring(colon + 1);
+                    }
+                    servePort = MultiThreadedGeneticAlgorithm.checkIntOption(name, value);
+                    if (servePort < 1 || servePort > 65535){
+                        throw new IllegalArgumentException("The port to serve evaluation workers on must be on the range [1,65535].");
+                    }
+                    break;
+                case "pipeline":
+                    String[] counts = value.split(",");
+                    if (counts.length != 3){
+                        throw new IllegalArgumentException("The value of --pipeline must give the threads of the variation, evaluation and insertion stages, such as 1,2,1.");
+                    }
+                    stageThreads = new int[3];
+                    for (int j = 0; j < 3; j++){
+                        stageThreads[j] = MultiThreadedGeneticAlgorithm.checkIntOption(name, counts[j]);
+                        if (stageThreads[j] < 1){
+                            throw new IllegalArgumentException("Each stage of the pipeline must have at least 1 thread.");
+                        }
+                    }
+                    break;
+                case "queue-depth":
+                    queueDepth = MultiThreadedGeneticAlgorithm.checkIntOption(name, value);
+                    if (queueDepth < 1){
+                        throw new IllegalArgumentException("The queue depth must be greater than or equal to 1.");
+                    }
+                    break;
+                case "checkpoint":
+                    checkpointInterval = MultiThreadedGeneticAlgorithm.checkIntOption(name, value);
+                    if (checkpointInterval < 0){
+                        throw new IllegalArgumentException("The checkpoint interval must be greater than or equal to 0.");
+                    }
+                    break;
+                case "checkpoint-file":
+                    checkpointFile = value;
+                    break;
+                case "resume":
+                    resumeFile = value;
+                    break;
+                case "metrics":
+                    metricsFile = value;
+                    break;
+                case "seed":
+                    try{
+                        seed = Long.parseLong(value);
+                    } catch(NumberFormatException e){
+                        throw new IllegalArgumentException("The value of --seed, " + value + ", is not an integer.");
+                    }
+                    break;
+                case "schedule":
+                    if (value.equals("async")){
+                        lockstep = false;
+                    } else if (value.equals("lockstep")){
+                        lockstep = true;
+                    } else {
+                        throw new IllegalArgumentException(value + " is not a schedule, use async or lockstep.");
+                    }
+                    break;
+                case "selection":
+                    try{
+                        selection = SelectionStrategy.valueOf(value.toUpperCase());
+                    } catch(IllegalArgumentException e){
+                        throw new IllegalArgumentException(value + " is not a selection strategy, use uniform, tournament, rank or roulette.");
+                    }
+                    break;
+                case "tournament-size":
+                    tournamentSize = MultiThreadedGeneticAlgorithm.checkIntOption(name, value);
+                    if (tournamentSize < 1){
+                        throw new IllegalArgumentException("The tournament size must be greater than or equal to 1.");
+                    }
+                    break;
+                case "mode":
+                    try{
+                        mode = EngineMode.valueOf(value.toUpperCase());
+                    } catch(IllegalArgumentException e){
+                        throw new IllegalArgumentException(value + " is not a mode, use async, generational or steady.");
+                    }
+                    break;
+                case "duplicates":
+                    if (value.equals("reject")){
+                        allowDuplicates = false;
+                    } else if (value.equals("allow")){
+                        allowDuplicates = true;
+                    } else {
+                        throw new IllegalArgumentException(value + " is not a duplicates policy, use reject or allow.");
+                    }
+                    break;
+                case "affinity":
+                    if (value.equals("none")){
+                        affinityNodes = null;
+                    } else if (value.equals("node")){
+                        affinityNodes = Affinity.nodes();
+                        if (affinityNodes.isEmpty()){
+                            System.out.println("The NUMA topology of this machine cannot be read, threads are not pinned.");
+                            affinityNodes = null;
+                        }
+                    } else {
+                        throw new IllegalArgumentException(value + " is not an affinity, use none or node.");
+                    }
+                    break;
+                case "rates":
+                    if (value.equals("fixed")){
+                        adaptiveRates = false;
+                    } else if (value.equals("adaptive")){
+                        adaptiveRates = true;
+                    } else {
+                        throw new IllegalArgumentException(value + " is not a rate control, use fixed or adaptive.");
+                    }
+                    break;
+                case "rate-window":
+                    rateWindow = MultiThreadedGeneticAlgorithm.checkIntOption(name, value);
+                    if (rateWindow < 1){
+                        throw new IllegalArgumentException("The rate window must be greater than or equal to 1.");
+                    }
+                    break;
+                case "rate-file":
+                    rateFile = value;
+                    break;
+                case "store":
+                    storeFile = value;
+                    break;
+                case "metrics-interval":
+                    metricsInterval = MultiThreadedGeneticAlgorithm.checkIntOption(name, value);
+                    if (metricsInterval < 1){
+                        throw new IllegalArgumentException("The metrics interval must be greater than or equal to 1.");
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(name + " is not a recognised option.");
+            }
+        }
+    }
+
+    /**
+     * Method to check whether the value of an option is an int. If so, it returns the int value. 
+     * If not, it throws an exception describing the error.
+     * 
+     * @param name name of the option
+     * @param value value of the option to be checked
+     * @returns int value of the option
+     */
+    private static int checkIntOption(String name, String value){
+        try{
+            return Integer.parseInt(value);
+        } catch(NumberFormatException e){
+            throw new IllegalArgumentException("The value of --" + name + ", " + value + ", is not an integer.");
+        }
+    }
+
     /**
      * Method to print error message and exit the system safely.
      * 
@@ -146,145 +755,552 @@ public class MultiThreadedGeneticAlgorithm implements Serializable
     }
 
     /**
-     * Method which starts the genetic algorithm by starting the appropriate
-     * number of Member threads. It also starts a Sorter thread which is concerned
-     * with writing the results of the algorithm.
+     * Method which starts the genetic algorithm by submitting Member tasks for the designs in 
+     * the population to the execution engines, each member managing a batch of designs. Each island
+     * has its own engine, sharing the threads between them, and the members are dealt out to the 
+     * islands in turn. With the lockstep schedule a Coordinator runs the members in rounds instead. If a 
+     * pipeline has been configured, its stages are started instead of the members, and in the generational
+     * mode a GenerationalEngine is started instead. It also starts a Sorter thread which waits for the run to end, then shuts it down and 
+     * completes the result.
      */
     private void runAlgorithm(){
-        // Instantiate the number of threads as defined by the population size
-        for (int i = 0; i < populationSize; i++){
-            (new Member(i)).start();
+        // In the generational mode, the engine takes the place of the members
+        if (mode == EngineMode.GENERATIONAL){
+            generational = new GenerationalEngine(data, kernel, rates, batchSize, tournamentSize, 
+                threads, cache, server, metrics, master.split());
+            generational.start();
+            (new Sorter()).start();
+            return;
+        }
+        // With a pipeline, the stages take the place of the members
+        if (stageThreads != null){
+            pipeline = new Pipeline(data, kernel, rates, batchSize, queueDepth, cache, server, metrics, 
+                master.split());
+            pipeline.start(stageThreads[0], stageThreads[1], stageThreads[2]);
+            (new Sorter()).start();
+            return;
+        }
+        engines = new ExecutionEngine[islandCount];
+        for (int i = 0; i < islandCount; i++){
+            // With affinity, the islands are pinned to the NUMA nodes in turn
+            String cpus = affinityNodes != null ? affinityNodes.get(i % affinityNodes.size()) : null;
+            engines[i] = new ExecutionEngine(Math.max(1, threads / islandCount), virtualThreads, cpus);
+        }
+        // Instantiate a member for each batch of designs in the population, and schedule its first step.
+        // Batches are no larger than the population of an island, so every island has a member. Each member
+        // is given its own stream of random numbers, split off in member order. With a population store, 
+        // there are only a few members for each thread, and each steps through its share of the slots
+        int size = Math.min(batchSize, populationSize / islandCount);
+        int count = (populationSize + size - 1) / size;
+        if (store != null){
+            count = Math.min(count, Math.max(islandCount, threads * MEMBERS_PER_THREAD));
+        }
+        members = new Member[count];
+        for (int i = 0, first = 0; i < members.length; i++){
+            Island island = data.getIsland(i % islandCount);
+            if (store != null){
+                int slots = populationSize / count + (i < populationSize % count ? 1 : 0);
+                members[i] = new Member(i, island, first, slots, Math.min(size, slots), master.split());
+                first += slots;
+            } else {
+                members[i] = new Member(i, island, Math.min(size, populationSize - i * size), master.split());
+            }
+            if (!lockstep){
+                engines[island.getIndex()].submit(members[i]);
+            }
+        }
+        if (lockstep){
+            coordinator = new Coordinator();
+            coordinator.start();
         }
         // Start a single Sorter thread
         (new Sorter()).start();
     }
 
     /**
-     * Method returns a deep copy of the Design passed in. That is, it creates
-     * a copy of the design but with a new memory reference. This is done using 
-     * serialization. If a deep copy cannot be made, an error message is printed and the
-     * system is exited.
-     * 
-     * @param d Design to be copied
-     * @returns Design copy which has a seperate memory reference
-     */
-    private static Design designDeepCopy(Design d){
-        try{
-            // Serialize the Design
-            ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-            ObjectOutputStream objectOut = new ObjectOutputStream(byteOut);
-            objectOut.writeObject(d);
-            // Read in as new object and cast to type Design
-            ByteArrayInputStream byteIn = new ByteArrayInputStream(byteOut.toByteArray());
-            ObjectInputStream objectIn = new ObjectInputStream(byteIn);
-            return ((Design)objectIn.readObject());
-        } catch (Exception e){
-            MultiThreadedGeneticAlgorithm.error("Error creating a deep copy of the design held by " + Thread.currentThread().getName());
-            return null;
-        }
-    }
-
-    /**
-     * Member class is a nested class which extends Thread. It provides the functionality of the genetic algorithm.
+     * Member class is a nested class which manages a batch of designs of the population. It provides the functionality 
+     * of the genetic algorithm: each run evaluates its designs together, so that the problem can share work between them, 
+     * then performs one step of evolution of each design, after which the member schedules itself to run again until the 
+     * termination criteria has been met.
      */
-    private class Member extends Thread{
-        Design memberDesign;
-        Design crossoverMember;
+    private class Member implements Runnable{
+        Design[] memberDesigns;
+        boolean[] cached; // whether each design took a value from the cache without counting an evaluation
+        boolean[] accepted; // whether each design was added to the archive in the current round, when in lockstep
+        EvaluationBudget.Lease lease; // evaluations this member may make, or null when in lockstep
+        Island island; // island whose elite designs this member uses
+        SplittableRandom rng; // random numbers of this member, only used by its own thread
+        int firstSlot, slots, cursor; // slots of the population store owned by this member, and the next to read
         int ID;
 
-        public Member(int i){
+        public Member(int i, Island island, int size, SplittableRandom rng){
             this.ID = i;
+            this.island = island;
+            this.memberDesigns = new Design[size];
+            this.cached = new boolean[size];
+            this.accepted = new boolean[size];
+            this.rng = rng;
+            // In lockstep the coordinator acquires the evaluations of every member
+            this.lease = lockstep ? null : data.newLease();
+            // Check there are designs available for the member to manage
+            if(data.getDesignsArraySize() < size){
+                throw new IllegalStateException("There are not enough designs for member " + ID + " to manage.");
+            }
+            // Set the designs for this member to manage and remove them from the data file
+            // so that no other member can manage these designs
+            for (int j = 0; j < size; j++){
+                memberDesigns[j] = data.getAndRemoveDesign();
+            }
         }
 
-        public void run(){
-            // Check there is a design available for the thread to manage
-            // If not print an error message and exit the system
-            if(data.getDesignsArraySize() == 0){
-                MultiThreadedGeneticAlgorithm.error("There are no designs for thread " + ID + " to manage.");
-            }
-            // Set a design for this thread to manage and remove it from the data file
-            // so that no other thread can manage this design
-            memberDesign = MultiThreadedGeneticAlgorithm.data.getAndRemoveDesign();
-
-            // While the number of function evaluations has not been met
-            while(MultiThreadedGeneticAlgorithm.data.terminationMet() == false){
-                // Evaluate the design
-                memberDesign.evaluate();
-
-                // If number of function evaulations has been met, break the loop
-                if(data.incrementCounter() == true){
-                    break;
+        public Member(int i, Island island, int firstSlot, int slots, int size, SplittableRandom rng){
+            this.ID = i;
+            this.island = island;
+            this.firstSlot = firstSlot;
+            this.slots = slots;
+            this.memberDesigns = new Design[size];
+            this.cached = new boolean[size];
+            this.accepted = new boolean[size];
+            this.rng = rng;
+            this.lease = lockstep ? null : data.newLease();
+            // The designs of this member are flyweights, which each step reads the next slots into
+            for (int j = 0; j < size; j++){
+                memberDesigns[j] = store.newDesign(data.getProblem());
+            }
+        }
+
+        /**
+         * Method reads the next slots of this member from the population store into its designs, 
+         * if the population is held in a store.
+         */
+        void readSlots(){
+            if (store != null){
+                for (int i = 0; i < memberDesigns.length; i++){
+                    store.read(firstSlot + (cursor + i) % slots, memberDesigns[i]);
                 }
+            }
+        }
 
-                // Keep trying to access the eliteDesigns array to see if design should be added
-                // Break loop when successful in checking and adding (if necessary)
-                while(true){
-                    try{
-                        //Check if the lock is held on elite designs array
-                        if(data.checkEliteSetLock() == false){
-                            if(data.addEliteDesign(memberDesign) == true){
-                                // If deisgn is added to the elite designs array (if necessary), break loop
-                                break;
-                            }
+        /**
+         * Method writes the first count designs of this member back to the slots they were read from,
+         * if the population is held in a store, and moves on to the slots after them.
+         * 
+         * @param count number of designs to write
+         */
+        void writeSlots(int count){
+            if (store != null){
+                for (int i = 0; i < count; i++){
+                    store.write(firstSlot + (cursor + i) % slots, memberDesigns[i]);
+                }
+                cursor = (cursor + count) % slots;
+            }
+        }
+
+        public void run(){
+            // An exception or error thrown by the problem or the algorithm stops the whole run, rather 
+            // than silently losing this member and leaving the run waiting for its evaluations
+            try{
+                this.step();
+            } catch(Throwable e){
+                lease.release();
+                MultiThreadedGeneticAlgorithm.this.fail(e);
+            }
+        }
+
+        private void step(){
+            // If the number of function evaluations has been met, stop scheduling this member
+            if(data.terminationMet() == true){
+                lease.release();
+                return;
+            }
+
+            // Read the next designs of this member from the population store, if it has one
+            this.readSlots();
+
+            // Look the designs up in the fitness cache. A design found there takes its value from the cache,
+            // and only counts as a function evaluation if the cache is configured to count hits
+            int charged = memberDesigns.length;
+            if (cache != null){
+                for (int i = 0; i < memberDesigns.length; i++){
+                    double fitness = cache.get(memberDesigns[i]);
+                    cached[i] = false;
+                    if (!Double.isNaN(fitness)){
+                        memberDesigns[i].setFitness(fitness);
+                        if (!cache.isHitCounted()){
+                            cached[i] = true;
+                            charged--;
                         }
-                        this.sleep(10);
-                    } catch (InterruptedException e){
-                        MultiThreadedGeneticAlgorithm.error("Error whilst waiting for designs to be allocated to threads.");
-                    } catch (ConcurrentModificationException e){
-                        MultiThreadedGeneticAlgorithm.error("Concurrent error modifying thread.");
                     }
                 }
+            }
 
-                // Keep trying to access the eliteDesign array or it's most recent copy to select 
-                // crossover parent, break loop when a design has been returned
-                while(true){
-                    try{
-                        crossoverMember = data.getRandomEliteDesign();
-                        if(crossoverMember != null){
-                            // Check a crossover design has been successfully drawn, if so
-                            // break loop
-                            break;
-                        }
-                        this.sleep(10);
-                    } catch (InterruptedException e){
-                        MultiThreadedGeneticAlgorithm.error("Error whilst waiting for designs to be allocated to threads.");
-                    } catch (ConcurrentModificationException e){
-                        MultiThreadedGeneticAlgorithm.error("Concurrent error modifying thread.");
+            // Acquire evaluations for the designs of this member from its lease, so the batch does not take
+            // the total beyond the number of function evaluations. Near the end fewer may be granted, and once
+            // none are the member stops, reporting the evaluations it made
+            int granted = lease.acquire(charged);
+            if(granted == 0 && charged > 0){
+                lease.release();
+                return;
+            }
+            // Only process designs up to the last one covered by the evaluations granted
+            int count = 0;
+            for (int charges = 0; count < memberDesigns.length; count++){
+                if (!cached[count]){
+                    if (charges == granted){
+                        break;
+                    }
+                    charges++;
+                }
+            }
+
+            // Evaluate the designs not found in the cache in a single batch, on the evaluation workers if 
+            // serving them, and cache their values
+            long start = System.nanoTime();
+            if (server != null){
+                try{
+                    server.evaluateAll(memberDesigns, count);
+                } catch (InterruptedException e){
+                    lease.release();
+                    return;
+                }
+            } else {
+                Design.evaluateAll(memberDesigns, count);
+            }
+            metrics.recordEvaluate(System.nanoTime() - start);
+            if (cache != null){
+                for (int i = 0; i < count; i++){
+                    if (!cached[i]){
+                        cache.put(memberDesigns[i]);
                     }
                 }
+            }
 
-                // Create a deep copy of the design managed by this thread to be crossed over with, else
-                // if the design managed by this thread is stored in the elite designs array 
-                // it will be overwritten with the evolved design
-                memberDesign = MultiThreadedGeneticAlgorithm.designDeepCopy(memberDesign);
+            for (int i = 0; i < count; i++){
+                // Offer the design to the elite designs archive, which adds it if it qualifies, pinned until it is copied
+                Design offered = memberDesigns[i];
+                boolean accepted = island.addEliteDesignPinned(offered);
+                metrics.recordOffer(accepted);
+                rates.recordOffer(accepted);
 
-                // If number of function evaluations has been met, break the loop
-                if(data.checkAndSetTermination() == true){
-                    break;
+                // Select a crossover parent from the elite designs archive of this member's island
+                Design crossoverMember = island.getRandomEliteDesign(rng);
+
+                // If the run has been stopped, stop
+                if(data.terminationMet() == true){
+                    island.releaseEliteDesign(crossoverMember);
+                    if (accepted){
+                        island.releaseEliteDesign(offered);
+                    }
+                    lease.release();
+                    return;
+                }
+
+                // Breed the next design in the place of this one, then release the crossover parent and the design offered
+                this.breed(i, accepted, crossoverMember);
+                island.releaseEliteDesign(crossoverMember);
+                if (accepted){
+                    island.releaseEliteDesign(offered);
+                }
+            }
+
+            // Write the evolved designs back to the population store, if the member has one
+            this.writeSlots(count);
+
+            // Count the evaluations towards the island's migration interval, migrating if it is due
+            data.countEvaluations(island, count, rng);
+
+            // Schedule the next step of this member
+            engines[island.getIndex()].submit(this);
+        }
+
+        /**
+         * Method evaluates the first count designs of this member, for a round of the lockstep schedule, 
+         * taking values from the fitness cache where it holds them.
+         * 
+         * @param count number of designs to evaluate
+         * @throws InterruptedException if the run is closed while the designs are with evaluation workers
+         */
+        void evaluateRound(int count) throws InterruptedException {
+            this.readSlots();
+            if (cache != null){
+                for (int i = 0; i < count; i++){
+                    double fitness = cache.get(memberDesigns[i]);
+                    cached[i] = !Double.isNaN(fitness);
+                    if (cached[i]){
+                        memberDesigns[i].setFitness(fitness);
+                    }
+                }
+            }
+            long start = System.nanoTime();
+            if (server != null){
+                server.evaluateAll(memberDesigns, count);
+            } else {
+                Design.evaluateAll(memberDesigns, count);
+            }
+            metrics.recordEvaluate(System.nanoTime() - start);
+            if (cache != null){
+                for (int i = 0; i < count; i++){
+                    if (!cached[i]){
+                        cache.put(memberDesigns[i]);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Method offers the first count designs of this member to the archive of its island, for a round of
+         * the lockstep schedule, recording which were accepted. Only the coordinator calls it, one member at a time.
+         * The designs accepted stay pinned until varyRound has copied them.
+         * 
+         * @param count number of designs to offer
+         */
+        void offerRound(int count){
+            for (int i = 0; i < count; i++){
+                accepted[i] = island.addEliteDesignPinned(memberDesigns[i]);
+                metrics.recordOffer(accepted[i]);
+                rates.recordOffer(accepted[i]);
+            }
+        }
+
+        /**
+         * Method evolves the first count designs of this member, for a round of the lockstep schedule. The 
+         * archives are not changed while members evolve, so each member draws the same parents on every run.
+         * 
+         * @param count number of designs to evolve
+         */
+        void varyRound(int count){
+            for (int i = 0; i < count; i++){
+                Design offered = memberDesigns[i];
+                Design crossoverMember = island.getRandomEliteDesign(rng);
+                this.breed(i, accepted[i], crossoverMember);
+                island.releaseEliteDesign(crossoverMember);
+                if (accepted[i]){
+                    island.releaseEliteDesign(offered);
                 }
+            }
+            this.writeSlots(count);
+        }
 
-                // Evolve design
-                memberDesign.evolve(crossoverMember, crossoverRate, mutationRate);
+        /**
+         * Method replaces design i of this member with its child, crossed over with the given elite parent. In 
+         * the steady-state mode the child starts as a copy of a second parent selected from the archive, rather 
+         * than of the design held, so both parents are elite designs.
+         * 
+         * @param i index of the design
+         * @param accepted whether the design was added to the elite designs archive
+         * @param crossoverMember elite parent to cross the design over with
+         */
+        void breed(int i, boolean accepted, Design crossoverMember){
+            long start;
+            if (mode == EngineMode.STEADY){
+                Design parent = island.getRandomEliteDesign(rng);
+                start = System.nanoTime();
+                if (accepted){
+                    memberDesigns[i] = data.copyDesign(parent);
+                } else {
+                    memberDesigns[i].copyFrom(parent);
+                }
+                metrics.recordCopy(System.nanoTime() - start);
+                island.releaseEliteDesign(parent);
+            } else if (accepted){
+                // If the design is now stored in the elite designs archive, continue with a copy of it, 
+                // else it would be overwritten with the evolved design. It was pinned when offered, so it 
+                // cannot be recycled by another thread before it is copied. A design that was not accepted 
+                // is only referenced by this member, so it can be evolved in place
+                start = System.nanoTime();
+                memberDesigns[i] = data.copyDesign(memberDesigns[i]);
+                metrics.recordCopy(System.nanoTime() - start);
             }
+            start = System.nanoTime();
+            memberDesigns[i].evolve(crossoverMember, rates.getCrossoverRate(), rates.getMutationRate(), kernel, rng);
+            metrics.recordEvolve(System.nanoTime() - start);
         }
     }
 
     /**
-     * Sorter class is a nested class which extends Thread. The sorter thread is used to sort the elite designs and save the output
-     * in both .txt and serialized form once the number of evaluations has been met.
+     * Coordinator class is a nested class which extends Thread. It runs the members in rounds for the lockstep schedule,
+     * so that a seeded run gives the same results every time. Each round the evaluations of the whole population are 
+     * acquired at once and given to the members in order; the members evaluate their designs on the execution engines, 
+     * the designs are offered to the archives one member at a time in member order, migration is counted in the same order,
+     * and the members then evolve their designs on the engines. Only the evaluation and evolution run in parallel.
+     */
+    private class Coordinator extends Thread{
+        EvaluationBudget.Lease lease = data.newLease();
+        volatile Throwable roundFailure; // exception thrown by a member during the current phase
+
+        public void run(){
+            try{
+                int round = 0; // designs evolved each round, which is the population unless it is held in a store
+                for (Member m: members){
+                    round += m.memberDesigns.length;
+                }
+                while (!data.terminationMet()){
+                    // Give the evaluations granted this round to the members in order; near the end only the
+                    // first members have any
+                    int granted = lease.acquire(round);
+                    int[] counts = new int[members.length];
+                    for (int i = 0, left = granted; i < members.length; i++){
+                        counts[i] = Math.min(left, members[i].memberDesigns.length);
+                        left -= counts[i];
+                    }
+                    if (granted == 0 || !this.phase(counts, true)){
+                        break;
+                    }
+                    for (int i = 0; i < members.length; i++){
+                        members[i].offerRound(counts[i]);
+                    }
+                    for (int i = 0; i < members.length; i++){
+                        data.countEvaluations(members[i].island, counts[i], members[i].rng);
+                    }
+                    if (granted < round || data.terminationMet() || !this.phase(counts, false)){
+                        break;
+                    }
+                }
+                lease.release();
+            } catch (Throwable e){
+                lease.release();
+                MultiThreadedGeneticAlgorithm.this.fail(e);
+            }
+        }
+
+        /*
+         * Method runs the evaluation or the evolution of every member with designs this round on the execution
+         * engines, and waits for all of them to finish. It returns false if the run was interrupted
+         */
+        private boolean phase(int[] counts, boolean evaluate){
+            CountDownLatch done = new CountDownLatch(members.length);
+            for (int i = 0; i < members.length; i++){
+                Member m = members[i];
+                int count = counts[i];
+                engines[m.island.getIndex()].submit(() -> {
+                    try{
+                        if (count > 0){
+                            if (evaluate){
+                                m.evaluateRound(count);
+                            } else {
+                                m.varyRound(count);
+                            }
+                        }
+                    } catch (Throwable e){
+                        roundFailure = e;
+                    } finally{
+                        done.countDown();
+                    }
+                });
+            }
+            try{
+                done.await();
+            } catch (InterruptedException e){
+                return false;
+            }
+            if (roundFailure instanceof RuntimeException){
+                throw (RuntimeException) roundFailure;
+            }
+            if (roundFailure instanceof Error){
+                throw (Error) roundFailure;
+            }
+            return roundFailure == null;
+        }
+    }
+
+    /**
+     * Sorter class is a nested class which extends Thread. The sorter thread waits on the evaluation budget until the run 
+     * has ended, writing checkpoints as the run progresses. It then shuts the run down, joining its worker threads, sorts 
+     * the elite designs and completes the result with them. If the sorter itself fails, the run is stopped and the
+     * result completes with the failure, so it always completes.
      */
     private class Sorter extends Thread{
         ArrayList<Design> results;
+        SplittableRandom checkpointSeeds = master.split(); // seeds saved in checkpoints
 
         public void run(){
-            // Wait for all functionEvaluations to be completed
-            while(data.terminationMet() != true){
+            try{
+                this.finish();
+            } catch (Throwable e){
+                data.stop();
+                result.fail(failure != null ? failure : e);
+            }
+        }
+
+        /*
+         * Method waits for the run to end, shuts it down and completes the result
+         */
+        private void finish(){
+            // Wait for all functionEvaluations to be completed, or the run to be stopped, writing a checkpoint
+            // each time the checkpoint interval passes
+            try{
+                if (checkpointInterval > 0){
+                    long nextCheckpoint = data.getEvaluationCount() + checkpointInterval;
+                    while(!data.awaitTermination(CHECKPOINT_POLL)){
+                        if (data.getEvaluationCount() >= nextCheckpoint){
+                            this.writeCheckpoint();
+                            nextCheckpoint = data.getEvaluationCount() + checkpointInterval;
+                        }
+                    }
+                } else {
+                    data.awaitTermination();
+                }
+            } catch(InterruptedException e){
+                data.stop();
+            }
+
+            // Stop the workers: close the connections to any evaluation workers, which ends them, then wait 
+            // for the coordinator, the members or the stages of the pipeline to finish
+            if (server != null){
+                server.close();
+            }
+            if (coordinator != null){
                 try{
-                    this.sleep(10);
+                    coordinator.join();
                 } catch(InterruptedException e){
-                    MultiThreadedGeneticAlgorithm.error("Error whilst waiting for design solutions to be updated.");
+                    Thread.currentThread().interrupt();
                 }
             }
+            if (engines != null){
+                for (ExecutionEngine engine: engines){
+                    engine.shutdown(Long.MAX_VALUE);
+                }
+            }
+            // The pipeline and the generational engine offer their last designs to the archive before they finish
+            try{
+                if (pipeline != null){
+                    pipeline.join();
+                    if (failure == null){
+                        failure = pipeline.getFailure();
+                    }
+                }
+                if (generational != null){
+                    generational.join();
+                    if (failure == null){
+                        failure = generational.getFailure();
+                    }
+                }
+            } catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+
+            // Report the effectiveness of the fitness cache, if used, and the work done by each stage of 
+            // the pipeline or the generational engine, if used
+            if (cache != null){
+                System.out.println("Fitness cache hits: " + cache.getHits() + ", misses: " + cache.getMisses());
+            }
+            if (pipeline != null){
+                System.out.println(pipeline.report());
+            }
+            if (generational != null){
+                System.out.println(generational.report());
+            }
+            if (adaptiveRates){
+                System.out.println(rates.report());
+            }
+
+            // Write the final line of metrics, and the end of the rate trajectory
+            metrics.stopStream();
+            metrics.unregister();
+            rates.closeTrajectory();
+
+            // Remove the population store; the elite designs are held on the heap, so are unaffected
+            MultiThreadedGeneticAlgorithm.this.closeStore();
 
             // Set elite design array as local variable
             results = data.getEliteDesignsArray();
@@ -293,30 +1309,37 @@ public class MultiThreadedGeneticAlgorithm implements Serializable
             // Reverse the order, so stored best to worst
             Collections.reverse(results);
 
-            try{
-                // Write to results.txt file
-                BufferedWriter writer = new BufferedWriter(new FileWriter("results.txt"));
-                for (int i = 0; i < results.size(); i++){
-                    // Write each value on a new line
-                    writer.write(results.get(i).getValue().toString());
-                    writer.newLine();
-                    writer.flush();
+            if (failure != null){
+                result.fail(failure);
+            } else {
+                result.complete(results);
+            }
+        }
+
+        /**
+         * Method writes a checkpoint of the elite designs and the population being evolved. A failure 
+         * is reported but does not stop the run, and the previous checkpoint is left in place.
+         */
+        private void writeCheckpoint(){
+            List<Design> population = new ArrayList<Design>(populationSize);
+            if (store != null){
+                population = store.asList(data.getProblem());
+            } else if (pipeline != null){
+                population.addAll(pipeline.getPopulation());
+            } else if (generational != null){
+                population = generational.getPopulation();
+            } else {
+                for (Member m: members){
+                    for (Design d: m.memberDesigns){
+                        population.add(d);
+                    }
                 }
-                writer.close();
-
-                // Write array to designs.ser serialized file
-                FileOutputStream output = new FileOutputStream("designs.ser");
-                ObjectOutputStream serializedOutput = new ObjectOutputStream(output);
-                serializedOutput.writeObject(results);
-                serializedOutput.close();
-                output.close();
-            } catch (IOException e) {
-                // If an IOException is caught, print error message to screen and exit the system
-                MultiThreadedGeneticAlgorithm.error("Error writing to results.txt or writing serialized file.");
-            } 
-
-            // When files have been written, exit the system
-            System.exit(1);
+            }
+            try{
+                Checkpoint.write(Paths.get(checkpointFile), data, population, checkpointSeeds.nextLong());
+            } catch (IOException e){
+                System.out.println("Error writing checkpoint to " + checkpointFile + ": " + e.getMessage());
+            }
         }
     }
 }
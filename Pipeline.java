@@ -0,0 +1,451 @@
+ 
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Pipeline runs the genetic algorithm as three stages connected by queues, rather than as members which each
+ * evaluate, insert and evolve their designs in turn. Variation threads select an elite parent and evolve a design,
+ * evaluation threads evaluate designs in batches, and insertion threads offer the evaluated designs to the elite
+ * designs archive, so evaluation never waits on the archive and variation runs ahead of evaluation.
+ *
+ * Each design of the population circulates through the stages: variation to evaluation and evaluation to insertion
+ * are bounded queues, so a stage that runs ahead blocks until the next stage catches up, while the queue from
+ * insertion back to variation holds the whole population, so the circle of stages can never deadlock.
+ *
+ * Once the termination criteria has been met, variation stops, while insertion carries on until every design that
+ * has been evaluated has been offered to the archive, so join returns only once the archive holds the final result.
+ *
+ * Every stage counts the designs it has processed and the time its threads spent waiting for input and for room
+ * in their output queue, which shows which stage is the bottleneck.
+ *
+ * @author Matt Powell
+ * @version 1.0
+ */
+public class Pipeline
+{
+    private static final long POLL = 10; // milliseconds between checks of the termination criteria while waiting
+    private final GAData data;
+    private final Island island;
+    private final EvolutionKernel kernel;
+    private final RateController rates;
+    private final int batchSize;
+    private final FitnessCache cache;
+    private final EvaluationServer server;
+    private final Metrics metrics;
+    private final SplittableRandom rng; // stream the streams of the variation threads are split from
+    private final BlockingQueue<Slot> variationQueue; // inserted designs waiting to be evolved
+    private final BlockingQueue<Slot> evaluationQueue; // evolved designs waiting to be evaluated
+    private final BlockingQueue<Slot> insertionQueue; // evaluated designs waiting to be offered to the archive
+    private final Stage variation = new Stage("Variation");
+    private final Stage evaluation = new Stage("Evaluation");
+    private final Stage insertion = new Stage("Insertion");
+    private final ArrayList<Thread> threads = new ArrayList<Thread>();
+    private final Slot[] slots; // every slot of the population, wherever it is in the pipeline
+    private CountDownLatch evaluating; // evaluation threads still running
+    private volatile Throwable failure; // exception which stopped a stage, if any
+
+    /**
+     * Constructs a pipeline for the designs of the given data, which must have a single island.
+     *
+     * @param data GAData holding the population and the elite designs archive
+     * @param kernel EvolutionKernel used to evolve designs
+     * @param rates RateController giving the crossover and mutation rates, which is told the outcome of each offer
+     * @param batchSize largest number of designs evaluated together
+     * @param queueDepth capacity of the queues into the evaluation and insertion stages
+     * @param cache FitnessCache to look designs up in, or null for none
+     * @param server EvaluationServer to evaluate designs on, or null to evaluate them in this process
+     * @param metrics Metrics to record the work of the stages in
+     * @param rng stream of random numbers, which each variation thread is given its own split of
+     */
+    Pipeline(GAData data, EvolutionKernel kernel, RateController rates, int batchSize, int queueDepth,
+            FitnessCache cache, EvaluationServer server, Metrics metrics, SplittableRandom rng) {
+        this.data = data;
+        this.island = data.getIsland(0);
+        this.kernel = kernel;
+        this.rates = rates;
+        this.batchSize = batchSize;
+        this.cache = cache;
+        this.server = server;
+        this.metrics = metrics;
+        this.rng = rng;
+        this.evaluationQueue = new ArrayBlockingQueue<Slot>(queueDepth);
+        this.insertionQueue = new ArrayBlockingQueue<Slot>(queueDepth);
+        // The whole population starts in the variation queue, which passes designs not yet evaluated straight on
+        int size = data.getDesignsArraySize();
+        this.variationQueue = new ArrayBlockingQueue<Slot>(size);
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++){
+            this.slots[i] = new Slot(data.getAndRemoveDesign());
+            this.variationQueue.add(this.slots[i]);
+        }
+    }
+
+    /**
+     * Method starts the threads of each stage. They stop once the termination criteria has been met.
+     *
+     * @param variationThreads number of threads evolving designs
+     * @param evaluationThreads number of threads evaluating designs
+     * @param insertionThreads number of threads offering designs to the elite designs archive
+     */
+    public void start(int variationThreads, int evaluationThreads, int insertionThreads){
+        this.evaluating = new CountDownLatch(evaluationThreads);
+        for (int i = 0; i < variationThreads; i++){
+            SplittableRandom stream = this.rng.split();
+            this.startThread(() -> this.vary(stream), this.variation, i);
+        }
+        for (int i = 0; i < evaluationThreads; i++){
+            this.startThread(this::evaluate, this.evaluation, i);
+        }
+        for (int i = 0; i < insertionThreads; i++){
+            this.startThread(this::insert, this.insertion, i);
+        }
+    }
+
+    /**
+     * Method waits for every thread of the pipeline to stop, after which every design evaluated has been 
+     * offered to the elite designs archive.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void join() throws InterruptedException {
+        for (Thread t: this.threads){
+            t.join();
+        }
+    }
+
+    /**
+     * Method returns the exception which stopped the pipeline, or null if it stopped normally.
+     *
+     * @returns Throwable exception thrown by a stage, or null
+     */
+    public Throwable getFailure(){
+        return this.failure;
+    }
+
+    /**
+     * Method returns a summary of the work done by each stage and the current length of the queues.
+     *
+     * @returns String with a line per stage
+     */
+    public String report(){
+        return this.variation + ", queue " + this.variationQueue.size() + System.lineSeparator()
+            + this.evaluation + ", queue " + this.evaluationQueue.size() + System.lineSeparator()
+            + this.insertion + ", queue " + this.insertionQueue.size();
+    }
+
+    /**
+     * Method returns the designs of the population as they currently are, wherever they are in the pipeline.
+     *
+     * @returns ArrayList<Design> designs of the population
+     */
+    public ArrayList<Design> getPopulation(){
+        ArrayList<Design> population = new ArrayList<Design>(this.slots.length);
+        for (Slot slot: this.slots){
+            population.add(slot.design);
+        }
+        return population;
+    }
+
+    /**
+     * Method returns the variation stage, whose threads evolve designs.
+     *
+     * @returns Stage variation stage
+     */
+    public Stage getVariation(){
+        return this.variation;
+    }
+
+    /**
+     * Method returns the evaluation stage, whose threads evaluate designs.
+     *
+     * @returns Stage evaluation stage
+     */
+    public Stage getEvaluation(){
+        return this.evaluation;
+    }
+
+    /**
+     * Method returns the insertion stage, whose threads offer designs to the elite designs archive.
+     *
+     * @returns Stage insertion stage
+     */
+    public Stage getInsertion(){
+        return this.insertion;
+    }
+
+    /*
+     * Method starts a named daemon thread running the given loop of a stage
+     */
+    private void startThread(Runnable loop, Stage stage, int i){
+        // An exception or error thrown by a stage stops the run, so the other stages stop too
+        Thread t = new Thread(() -> {
+            try{
+                loop.run();
+            } catch (Throwable e){
+                if (this.failure == null){
+                    this.failure = e;
+                }
+                this.data.stop();
+            }
+        }, stage.name + "-" + i);
+        t.setDaemon(true);
+        this.threads.add(t);
+        t.start();
+    }
+
+    /*
+     * Variation loop: takes an inserted design, continues with a copy of it if the archive kept it, and evolves
+     * it with a random elite parent, drawing random numbers from the thread's own stream
+     */
+    private void vary(SplittableRandom rng){
+        while (!this.data.terminationMet()){
+            Slot slot = this.take(this.variationQueue, this.variation);
+            if (slot == null){
+                continue;
+            }
+            // Designs of the initial population have not been evaluated yet, so are passed straight on
+            if (slot.design.isEvaluated()){
+                if (slot.accepted){
+                    Design offered = slot.design;
+                    long start = System.nanoTime();
+                    slot.design = this.data.copyDesign(offered);
+                    this.metrics.recordCopy(System.nanoTime() - start);
+                    this.island.releaseEliteDesign(offered);
+                }
+                Design parent = this.island.getRandomEliteDesign(rng);
+                long start = System.nanoTime();
+                slot.design.evolve(parent, this.rates.getCrossoverRate(), this.rates.getMutationRate(), this.kernel, rng);
+                this.metrics.recordEvolve(System.nanoTime() - start);
+                this.island.releaseEliteDesign(parent);
+            }
+            this.variation.processed.increment();
+            if (!this.put(this.evaluationQueue, slot, this.variation)){
+                return;
+            }
+        }
+    }
+
+    /*
+     * Evaluation loop: takes up to a batch of designs, acquires evaluations for them from this thread's lease,
+     * evaluates them together and passes them on
+     */
+    private void evaluate(){
+        EvaluationBudget.Lease lease = this.data.newLease();
+        Slot[] slots = new Slot[this.batchSize];
+        Design[] designs = new Design[this.batchSize];
+        boolean[] cached = new boolean[this.batchSize];
+        ArrayList<Slot> drained = new ArrayList<Slot>(this.batchSize);
+        int handBack = 0; // designs at the end of the batch not granted evaluations, to hand back once the lease is released
+        int n = 0;
+        try{
+            while (!this.data.terminationMet()){
+                Slot first = this.take(this.evaluationQueue, this.evaluation);
+                if (first == null){
+                    continue;
+                }
+                drained.clear();
+                drained.add(first);
+                this.evaluationQueue.drainTo(drained, this.batchSize - 1);
+                n = drained.size();
+                for (int i = 0; i < n; i++){
+                    slots[i] = drained.get(i);
+                    designs[i] = slots[i].design;
+                }
+
+                // Look the designs up in the fitness cache, as a member does
+                int charged = n;
+                for (int i = 0; i < n; i++){
+                    cached[i] = false;
+                    if (this.cache != null){
+                        double fitness = this.cache.get(designs[i]);
+                        if (!Double.isNaN(fitness)){
+                            designs[i].setFitness(fitness);
+                            if (!this.cache.isHitCounted()){
+                                cached[i] = true;
+                                charged--;
+                            }
+                        }
+                    }
+                }
+
+                // Only evaluate the designs covered by the evaluations granted. Once the budget runs out the
+                // rest are handed back for threads which still hold evaluations, and this thread stops
+                int granted = lease.acquire(charged);
+                int count = 0;
+                for (int charges = 0; count < n; count++){
+                    if (!cached[count]){
+                        if (charges == granted){
+                            break;
+                        }
+                        charges++;
+                    }
+                }
+                long start = System.nanoTime();
+                if (this.server != null){
+                    this.server.evaluateAll(designs, count);
+                } else {
+                    Design.evaluateAll(designs, count);
+                }
+                this.metrics.recordEvaluate(System.nanoTime() - start);
+                if (this.cache != null){
+                    for (int i = 0; i < count; i++){
+                        if (!cached[i]){
+                            this.cache.put(designs[i]);
+                        }
+                    }
+                }
+                this.evaluation.processed.add(count);
+                for (int i = 0; i < count; i++){
+                    if (!this.put(this.insertionQueue, slots[i], this.evaluation)){
+                        return;
+                    }
+                }
+                if (count < n){
+                    handBack = n - count;
+                    return;
+                }
+            }
+        } catch (InterruptedException e){
+            // Stop evaluating, reporting the evaluations made
+        } finally{
+            // Report this thread's evaluations before handing designs back, as it may have made the last of them
+            lease.release();
+            for (int i = n - handBack; i < n; i++){
+                this.put(this.evaluationQueue, slots[i], this.evaluation);
+            }
+            this.evaluating.countDown();
+        }
+    }
+
+    /*
+     * Insertion loop: offers each evaluated design to the elite designs archive, and returns it to variation, until
+     * the evaluation threads have stopped and every design they evaluated has been offered
+     */
+    private void insert(){
+        while (this.evaluating.getCount() > 0 || !this.insertionQueue.isEmpty()){
+            Slot slot = this.take(this.insertionQueue, this.insertion);
+            if (slot == null){
+                continue;
+            }
+            // A design kept by the archive stays pinned until variation has copied it
+            slot.accepted = this.island.addEliteDesignPinned(slot.design);
+            this.metrics.recordOffer(slot.accepted);
+            this.rates.recordOffer(slot.accepted);
+            this.data.countEvaluations(this.island, 1);
+            this.insertion.processed.increment();
+            if (!this.put(this.variationQueue, slot, this.insertion)){
+                return;
+            }
+        }
+    }
+
+    /*
+     * Method waits for the next slot of the queue, counting the time waited against the stage, and returns
+     * null if none arrives before the next check of the termination criteria
+     */
+    private Slot take(BlockingQueue<Slot> queue, Stage stage){
+        Slot slot = queue.poll();
+        if (slot != null){
+            return slot;
+        }
+        long start = System.nanoTime();
+        try{
+            slot = queue.poll(POLL, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        stage.inputWait.add(System.nanoTime() - start);
+        return slot;
+    }
+
+    /*
+     * Method waits for room in the queue and adds the slot, counting the time waited against the stage, and
+     * returns false if the termination criteria is met first. Evaluated designs are always added, as the
+     * insertion threads drain their queue before stopping, unless a stage has failed
+     */
+    private boolean put(BlockingQueue<Slot> queue, Slot slot, Stage stage){
+        if (queue.offer(slot)){
+            return true;
+        }
+        long start = System.nanoTime();
+        try{
+            while (!queue.offer(slot, POLL, TimeUnit.MILLISECONDS)){
+                if ((queue != this.insertionQueue || this.failure != null) && this.data.terminationMet()){
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return false;
+        } finally{
+            stage.outputWait.add(System.nanoTime() - start);
+        }
+    }
+
+    /*
+     * Slot holds a design of the population as it moves through the stages, and whether the archive kept it
+     */
+    private static class Slot{
+        volatile Design design;
+        boolean accepted = false;
+
+        Slot(Design design){
+            this.design = design;
+        }
+    }
+
+    /**
+     * Stage holds the counters of one stage of the pipeline.
+     */
+    public static class Stage{
+        private final String name;
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder inputWait = new LongAdder(); // nanoseconds waiting for input
+        private final LongAdder outputWait = new LongAdder(); // nanoseconds waiting for room in the next queue
+
+        Stage(String name){
+            this.name = name;
+        }
+
+        /**
+         * Method returns the number of designs this stage has processed.
+         *
+         * @returns number of designs
+         */
+        public long getProcessed(){
+            return this.processed.sum();
+        }
+
+        /**
+         * Method returns the total time the threads of this stage have waited for input.
+         *
+         * @returns time in nanoseconds
+         */
+        public long getInputWait(){
+            return this.inputWait.sum();
+        }
+
+        /**
+         * Method returns the total time the threads of this stage have waited for room in the next queue.
+         *
+         * @returns time in nanoseconds
+         */
+        public long getOutputWait(){
+            return this.outputWait.sum();
+        }
+
+        @Override
+        public String toString(){
+            return this.name + ": " + this.getProcessed() + " designs, waited " + this.getInputWait() / 1000000
+                + "ms for input and " + this.getOutputWait() / 1000000 + "ms for output";
+        }
+    }
+}
@@ -0,0 +1,162 @@
+ 
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.List;
+
+
+/**
+ * PopulationStore holds the population of a run outside the heap, in a memory-mapped file, so that populations far
+ * larger than the heap can be evolved without the garbage collector having to trace them. The file is divided into
+ * fixed-width slots, one per design, each holding the fitness of the design followed by the packed words of its genome.
+ *
+ * Designs act as flyweights over the slots: a worker keeps a few Design objects, reads a slot into one, evaluates and
+ * evolves it, then writes it back, so the heap only holds the designs being worked on. Slots are read and written in
+ * place, without locking, so each slot must only be used by one worker at a time.
+ *
+ * The file is mapped in segments of at most MAX_SEGMENT bytes, as a single mapping cannot exceed 2GB, and a slot never
+ * spans two segments. The file is scratch space for the run and is deleted when the store is closed.
+ *
+ * Layout, in native byte order: for each slot, the fitness as the bits of a double (NaN if not evaluated), then the
+ * words of the genome.
+ *
+ * @author Matt Powell
+ * @version 1.0
+ */
+public class PopulationStore
+{
+    private static final long MAX_SEGMENT = 1L << 30; // largest mapping, in bytes
+    private final Path file;
+    private final FileChannel channel;
+    private final LongBuffer[] segments;
+    private final int slots;
+    private final int length; // bits in each genome
+    private final int slotLongs; // longs in each slot: the fitness and the genome words
+    private final int slotsPerSegment;
+
+    /**
+     * Constructs a store of the given number of slots in the given file, replacing any file already there.
+     * Every slot starts empty, with a cleared genome and no fitness.
+     *
+     * @param file Path of the file to map
+     * @param slots number of designs the store holds
+     * @param length number of bits in the genome of each design
+     * @throws IOException if the file cannot be created or mapped
+     */
+    PopulationStore(Path file, int slots, int length) throws IOException {
+        this.file = file;
+        this.slots = slots;
+        this.length = length;
+        this.slotLongs = 1 + Genome.wordCount(length);
+        this.slotsPerSegment = (int) Math.max(1, Math.min(MAX_SEGMENT / (this.slotLongs * 8L), Integer.MAX_VALUE));
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try{
+            this.segments = new LongBuffer[(slots + this.slotsPerSegment - 1) / this.slotsPerSegment];
+            for (int s = 0; s < this.segments.length; s++){
+                long first = (long) s * this.slotsPerSegment;
+                long count = Math.min(this.slotsPerSegment, slots - first);
+                this.segments[s] = this.channel.map(FileChannel.MapMode.READ_WRITE, first * this.slotLongs * 8,
+                    count * this.slotLongs * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+                // A new file reads as zeros, which is a fitness of 0, so mark every slot as not evaluated
+                for (int i = 0; i < count; i++){
+                    this.segments[s].put(i * this.slotLongs, Double.doubleToRawLongBits(Double.NaN));
+                }
+            }
+        } catch (IOException | RuntimeException e){
+            this.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Method returns the number of slots in this store.
+     *
+     * @returns number of designs held
+     */
+    public int size(){
+        return this.slots;
+    }
+
+    /**
+     * Method returns a new design for the given problem with an empty genome of the length held by this store,
+     * for a worker to read slots into.
+     *
+     * @param problem Problem the designs of the store are tackling
+     * @returns Design new design
+     */
+    public Design newDesign(Problem problem){
+        return new Design(problem, new Genome(this.length));
+    }
+
+    /**
+     * Method reads the design held in a slot into the given design, overwriting its genome and fitness.
+     *
+     * @param slot index of the slot to read
+     * @param d Design created by newDesign, which takes the value of the slot
+     */
+    public void read(int slot, Design d){
+        LongBuffer segment = this.segments[slot / this.slotsPerSegment];
+        int base = (slot % this.slotsPerSegment) * this.slotLongs;
+        segment.get(base + 1, d.getGenome().words());
+        d.reset(Double.longBitsToDouble(segment.get(base)));
+    }
+
+    /**
+     * Method writes the given design into a slot, replacing the design held there.
+     *
+     * @param slot index of the slot to write
+     * @param d Design to store, whose genome must have the length held by this store
+     */
+    public void write(int slot, Design d){
+        if (d.getGenome().length() != this.length){
+            throw new IllegalArgumentException("A design of length " + d.getGenome().length() + " cannot be stored in slots of length " + this.length);
+        }
+        LongBuffer segment = this.segments[slot / this.slotsPerSegment];
+        int base = (slot % this.slotsPerSegment) * this.slotLongs;
+        segment.put(base, Double.doubleToRawLongBits(d.getFitness()));
+        segment.put(base + 1, d.getGenome().words());
+    }
+
+    /**
+     * Method returns a read-only List view of the designs in this store. Each call to get reads the slot
+     * into a new design, so the view should only be iterated, as a checkpoint does.
+     *
+     * @param problem Problem the designs of the store are tackling
+     * @returns List<Design> view of the slots
+     */
+    public List<Design> asList(Problem problem){
+        return new AbstractList<Design>(){
+            @Override
+            public Design get(int index){
+                Design d = PopulationStore.this.newDesign(problem);
+                PopulationStore.this.read(index, d);
+                return d;
+            }
+
+            @Override
+            public int size(){
+                return PopulationStore.this.slots;
+            }
+        };
+    }
+
+    /**
+     * Method closes the file of this store and deletes it. The mappings are released once they are
+     * garbage collected, so no slot may be used after the store is closed.
+     */
+    public void close(){
+        try{
+            this.channel.close();
+            Files.deleteIfExists(this.file);
+        } catch (IOException e){
+            System.out.println("Error removing population store " + this.file + ": " + e.getMessage());
+        }
+    }
+}
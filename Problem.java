@@ -1,6 +1,7 @@
 package ga;
 
 import java.util.ArrayList;
+import java.util.SplittableRandom;
 
 /**
  * Any design problem to be solved by the MultiThreadedGeneticAlgorithm
@@ -20,6 +21,22 @@ public interface Problem
      */
     Number evaluate(Design d); 
     
+    /**
+     * Method to enable the evaluation of a batch of Designs on this problem. Problems
+     * which can share work between designs (loading tables, vectorising, calling an
+     * external simulator once per batch) should override this method; by default each
+     * design is evaluated in turn with evaluate(Design).
+     * 
+     * @param  designs   An array containing the designs to evaluate on this problem
+     * @return an array of Numbers containing the evaluation of each design, in the same order
+     */
+    default Number[] evaluateAll(Design[] designs) {
+        Number[] values = new Number[designs.length];
+        for (int i = 0; i < designs.length; i++)
+            values[i] = this.evaluate(designs[i]);
+        return values;
+    }
+    
     /**
      * Method to generate a random boolean vector (representing a binary string) 
      * of the appropriate length to be used by this problem
@@ -27,4 +44,17 @@ public interface Problem
      * @return a random design vector
      */
     ArrayList<Boolean> getRandomDesignVector();
+    
+    /**
+     * Method to generate a random design vector drawing its random numbers from the given
+     * stream. Problems should override this method so that seeded runs start from the same
+     * population every time; by default the stream is ignored and getRandomDesignVector() 
+     * is used.
+     * 
+     * @param  rng   stream of random numbers to draw the vector from
+     * @return a random design vector
+     */
+    default ArrayList<Boolean> getRandomDesignVector(SplittableRandom rng) {
+        return this.getRandomDesignVector();
+    }
 }
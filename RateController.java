@@ -0,0 +1,219 @@
+ 
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * RateController holds the crossover and mutation rates of a run, which every worker reads each time it evolves a
+ * design. The rates are fixed by default. When adaptive, the mutation rate is adjusted online by the 1/5th success
+ * rule: every window of offers to the elite designs archives, the fraction accepted is compared with 1/5, and the
+ * mutation rate is raised by FACTOR if more were accepted, so that the search takes larger steps while it is easily
+ * improving, and lowered by FACTOR if fewer were, so that it refines the designs it has once it is not. The rate
+ * is kept between one flipped bit per child on average, below which mutation rarely changes a design at all, and 1/2.
+ *
+ * The crossover rate is held fixed. Uniform crossover moves a child as far from its elite parent at a rate of r as at
+ * a rate of 1 - r, so unlike the mutation rate it does not set a step size for the rule to adjust, and as every
+ * child is bred with both operators the acceptance of a child gives no credit to either one alone.
+ *
+ * The mutation rate is volatile, so workers see an adjustment at their next design without taking a lock. Offers are
+ * counted in striped counters, each on its own cache line, and a thread counts in the stripe its id hashes to. The offer
+ * which brings a stripe to STRIDE offers, a stride which divides the window, empties it and folds its counts into the
+ * shared totals, so an offer only touches state shared by every thread once a stride. The counts belong to the stripe
+ * rather than the thread, so none are lost when a thread ends, and the short-lived virtual threads of the virtual 
+ * executor fill the stripes as long-lived threads do. The thread whose fold completes a window makes the adjustment, 
+ * under the lock of the controller. Offers made by one thread, as in the lockstep schedule, are counted exactly, so 
+ * such runs adapt the same way every time. Each adjustment can be recorded to a trajectory file, as a line of comma 
+ * separated values.
+ *
+ * @author Matt Powell
+ * @version 1.0
+ */
+public class RateController
+{
+    private static final double TARGET = 0.2; // fraction of offers accepted that the rule aims for
+    private static final double FACTOR = 1.0 / 0.85; // change in the mutation rate at each adjustment
+    private static final double MAX_MUTATION = 0.5;
+    private static final int STRIDE = 64; // largest number of offers a stripe counts before they are folded into the totals
+    private static final int PADDING = 8; // longs between stripes, so each is on its own cache line
+    private static final long ACCEPTED = 1L << 32; // unit of the acceptances counted in the high half of a stripe
+    private final GAData data;
+    private final boolean adaptive;
+    private final int window; // offers between adjustments
+    private final int stride; // offers a stripe counts before they are folded in, which divides the window
+    private final double minMutation; // lowest mutation rate, at which a child has one bit flipped on average
+    private final double crossoverRate;
+    private volatile double mutationRate;
+    private final int stripeMask; // number of stripes less one
+    private final AtomicLongArray stripes; // offers not yet folded in, in the low half, and acceptances, in the high half
+    // Totals of the offers folded in, guarded by the lock of the controller
+    private long offers = 0;
+    private long accepted = 0;
+    private long windows = 0; // windows completed by the offers folded in
+    private long lastOffers = 0; // offers folded in at the last adjustment
+    private long lastAccepted = 0; // offers accepted at the last adjustment
+    private BufferedWriter trajectory; // file each adjustment is recorded in, or null for none
+
+    /**
+     * Constructs a controller starting from the given rates.
+     *
+     * @param data GAData of the run, whose evaluation count is recorded with each adjustment
+     * @param crossoverRate probability of crossover for each bit
+     * @param mutationRate initial probability of mutation for each bit
+     * @param adaptive whether to adjust the mutation rate by the 1/5th success rule
+     * @param window number of offers to the elite designs archives between adjustments
+     * @param length number of bits in the genome of each design
+     */
+    RateController(GAData data, double crossoverRate, double mutationRate, boolean adaptive, int window, int length) {
+        this.data = data;
+        this.crossoverRate = crossoverRate;
+        this.mutationRate = mutationRate;
+        this.adaptive = adaptive;
+        this.window = Math.max(1, window);
+        int stride = Math.min(STRIDE, this.window);
+        while (this.window % stride != 0){
+            stride--;
+        }
+        this.stride = stride;
+        int stripes = Integer.highestOneBit(Math.max(1, 2 * Runtime.getRuntime().availableProcessors() - 1)) * 2;
+        this.stripeMask = stripes - 1;
+        this.stripes = new AtomicLongArray(stripes * PADDING);
+        this.minMutation = Math.min(MAX_MUTATION, 1.0 / Math.max(1, length));
+    }
+
+    /**
+     * Method returns the current crossover rate.
+     *
+     * @returns probability of crossover for each bit
+     */
+    public double getCrossoverRate(){
+        return this.crossoverRate;
+    }
+
+    /**
+     * Method returns the current mutation rate.
+     *
+     * @returns probability of mutation for each bit
+     */
+    public double getMutationRate(){
+        return this.mutationRate;
+    }
+
+    /**
+     * Method records the outcome of offering a design to an elite designs archive, in the stripe of the
+     * calling thread, adjusting the mutation rate if folding the stripe in completes a window.
+     *
+     * @param accepted whether the archive kept the design
+     */
+    public void recordOffer(boolean accepted){
+        if (!this.adaptive){
+            return;
+        }
+        long id = Thread.currentThread().getId();
+        int i = ((int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & this.stripeMask) * PADDING;
+        long delta = accepted ? 1 + ACCEPTED : 1;
+        while (true){
+            long counts = this.stripes.get(i);
+            long next = counts + delta;
+            if ((int) next == this.stride){
+                // This offer fills the stripe, so empty it and fold its counts in
+                if (this.stripes.compareAndSet(i, counts, 0)){
+                    this.fold(next);
+                    return;
+                }
+            } else if (this.stripes.compareAndSet(i, counts, next)){
+                return;
+            }
+        }
+    }
+
+    /*
+     * Method adds the counts of a full stripe to the totals, and applies the 1/5th success rule to the offers
+     * folded in since the last adjustment if they complete a window. Folds of other stripes are only seen once they
+     * have been made, so a window's success rate counts whole strides, which the rule tolerates
+     */
+    private synchronized void fold(long counts){
+        this.offers += (int) counts;
+        this.accepted += counts >>> 32;
+        long n = this.offers;
+        if (n / this.window == this.windows){
+            return;
+        }
+        this.windows = n / this.window;
+        long a = this.accepted;
+        double success = (double) (a - this.lastAccepted) / (n - this.lastOffers);
+        this.lastOffers = n;
+        this.lastAccepted = a;
+        double rate = this.mutationRate;
+        if (success > TARGET){
+            rate *= FACTOR;
+        } else if (success < TARGET){
+            rate /= FACTOR;
+        }
+        this.mutationRate = Math.min(MAX_MUTATION, Math.max(this.minMutation, rate));
+        this.record(n, Double.toString(success));
+    }
+
+    /**
+     * Method starts recording the trajectory of the rates to the given file, which is replaced. A header
+     * line is written, then the initial rates, then a line for each adjustment, giving the evaluations made,
+     * the offers counted, the fraction of the window's offers accepted and the rates it led to.
+     *
+     * @param file Path of the file
+     * @throws IOException if the file cannot be created
+     */
+    public synchronized void startTrajectory(Path file) throws IOException {
+        this.trajectory = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        this.trajectory.write("evaluations,offers,success_rate,crossover_rate,mutation_rate");
+        this.trajectory.newLine();
+        this.record(this.offers, "");
+    }
+
+    /*
+     * Method appends a line for the current rates to the trajectory, if it is being recorded. A failure to
+     * write is reported and ends the trajectory, but does not stop the run
+     */
+    private void record(long n, String success){
+        if (this.trajectory == null){
+            return;
+        }
+        try{
+            this.trajectory.write(String.format(Locale.ROOT, "%d,%d,%s,%s,%s", this.data.getEvaluationCount(), n,
+                success, this.crossoverRate, this.mutationRate));
+            this.trajectory.newLine();
+        } catch (IOException e){
+            System.out.println("Error writing the rate trajectory: " + e.getMessage());
+            this.closeTrajectory();
+        }
+    }
+
+    /**
+     * Method finishes recording the trajectory, flushing it to its file, once the run has ended.
+     */
+    public synchronized void closeTrajectory(){
+        if (this.trajectory == null){
+            return;
+        }
+        try{
+            this.trajectory.close();
+        } catch (IOException e){
+            System.out.println("Error writing the rate trajectory: " + e.getMessage());
+        }
+        this.trajectory = null;
+    }
+
+    /**
+     * Method returns a summary of the rates at the end of the run.
+     *
+     * @returns String describing the final rates
+     */
+    public synchronized String report(){
+        return "Final rates: crossover " + this.crossoverRate + ", mutation " + this.mutationRate
+            + " after " + this.windows + " adjustments";
+    }
+}
@@ -0,0 +1,38 @@
+ 
+
+/**
+ * SelectionStrategy sets how a crossover parent is selected from the elite designs archive of an island. Every
+ * strategy samples the archive in place, without copying or sorting it.
+ * 
+ * @author Matt Powell
+ * @version 1.0
+ */
+public enum SelectionStrategy
+{
+    /**
+     * Each elite design is equally likely to be selected
+     */
+    UNIFORM,
+
+    /**
+     * The best of k elite designs drawn uniformly at random is selected, so higher k gives stronger 
+     * selection pressure
+     */
+    TOURNAMENT,
+
+    /**
+     * Elite designs are selected with probability falling linearly with their rank: of n designs, the one of 
+     * rank i, counting the worst as 1, is selected with probability (2i - 1) / n^2. This is sampled as the 
+     * better of two designs drawn at random, which selects with exactly these probabilities, so no ranking 
+     * is needed
+     */
+    RANK,
+
+    /**
+     * Elite designs are selected with probability proportional to their fitness above the worst design held,
+     * plus a small share so the worst design can still be selected. This is sampled in O(1) from an alias 
+     * table, whose O(k) rebuild is amortised over the changes to the archive, so the weights it samples from
+     * may lag the archive by a bounded number of changes
+     */
+    ROULETTE
+}
@@ -0,0 +1,96 @@
+package ga;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * DesignBenchmark measures the operations each worker makes on its own designs: evolving a design with each kernel,
+ * evaluating it, and copying it with the constructor or through a design pool. The designs are held per thread, so
+ * running with more threads (-t) measures how the operations scale without contending on shared state.
+ *
+ * Every benchmark returns its result, which JMH consumes, so the work cannot be optimised away.
+ *
+ * @author Matt Powell
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DesignBenchmark
+{
+    private static final double CROSSOVER_RATE = 0.5;
+    private static final double MUTATION_RATE = 0.001;
+
+    /**
+     * Designs of one thread, of each genome length measured.
+     */
+    @State(Scope.Thread)
+    public static class Designs{
+        @Param({"100", "10000", "100000"})
+        public int length;
+
+        Design child;
+        Design parent;
+        DesignPool pool;
+        SplittableRandom rng;
+
+        @Setup
+        public void setUp(){
+            OnesProblem problem = new OnesProblem(this.length);
+            this.rng = new SplittableRandom(this.length);
+            this.child = new Design(problem, this.rng);
+            this.parent = new Design(problem, this.rng);
+            this.pool = new DesignPool(1);
+        }
+    }
+
+    /**
+     * Kernel to evolve designs with, which only the evolve benchmark is run with each of.
+     */
+    @State(Scope.Thread)
+    public static class Kernel{
+        @Param({"BITWISE", "WORD"})
+        public EvolutionKernel kernel;
+    }
+
+    @Benchmark
+    public Design evolve(Designs designs, Kernel kernel){
+        designs.child.evolve(designs.parent, CROSSOVER_RATE, MUTATION_RATE, kernel.kernel, designs.rng);
+        return designs.child;
+    }
+
+    @Benchmark
+    public double evaluate(Designs designs){
+        // Clearing the fitness makes the design evaluate again
+        designs.child.reset(Double.NaN);
+        designs.child.evaluate();
+        return designs.child.getFitness();
+    }
+
+    @Benchmark
+    public Design copyConstructor(Designs designs){
+        return new Design(designs.child);
+    }
+
+    @Benchmark
+    public int copyPool(Designs designs){
+        Design copy = designs.pool.copyOf(designs.child);
+        int bits = copy.getGenome().length();
+        designs.pool.recycle(copy);
+        return bits;
+    }
+}
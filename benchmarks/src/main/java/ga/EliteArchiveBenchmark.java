@@ -0,0 +1,96 @@
+package ga;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * EliteArchiveBenchmark measures the operations every worker makes on the shared elite designs archive: offering a
+ * design to it, and sampling a crossover parent from it. The archive is shared by all the threads of a trial, so 
+ * running with more threads (-t) measures the contention between workers.
+ *
+ * Each offer is a new design, as the archive keeps the designs it accepts, with a fitness that rises steadily, so a 
+ * share of the offers replace the worst design. The designs of a thread are copies of one genome, so duplicates are
+ * allowed, else every offer after the first would only measure the duplicate check.
+ *
+ * @author Matt Powell
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EliteArchiveBenchmark
+{
+    private static final int GENOME_LENGTH = 100;
+
+    /**
+     * Archive shared by the threads of a trial, which starts full of evaluated designs.
+     */
+    @State(Scope.Benchmark)
+    public static class Archive{
+        @Param({"10", "1000", "10000"})
+        public int eliteSize;
+
+        GAData data;
+        OnesProblem problem;
+
+        @Setup(Level.Trial)
+        public void setUp(){
+            this.problem = new OnesProblem(GENOME_LENGTH);
+            this.data = new GAData(1, this.eliteSize, 0.5, 0.001, Integer.MAX_VALUE, this.problem);
+            this.data.setAllowDuplicates(true);
+            SplittableRandom rng = new SplittableRandom(this.eliteSize);
+            for (int i = 0; i < this.eliteSize; i++){
+                Design d = new Design(this.problem, rng);
+                d.setFitness(rng.nextDouble());
+                this.data.addEliteDesign(d);
+            }
+        }
+    }
+
+    /**
+     * Designs offered by one thread.
+     */
+    @State(Scope.Thread)
+    public static class Offers{
+        Design template;
+        SplittableRandom rng;
+        double next = 0;
+
+        @Setup(Level.Trial)
+        public void setUp(Archive archive){
+            this.rng = new SplittableRandom();
+            this.template = new Design(archive.problem, this.rng);
+        }
+    }
+
+    @Benchmark
+    public boolean addEliteDesign(Archive archive, Offers offers){
+        Design d = new Design(offers.template);
+        offers.next += 1.0;
+        d.setFitness(offers.next * offers.rng.nextDouble());
+        return archive.data.addEliteDesign(d);
+    }
+
+    @Benchmark
+    public int getRandomEliteDesign(Archive archive){
+        Design d = archive.data.getRandomEliteDesign();
+        int length = d.getGenome().length();
+        archive.data.releaseEliteDesign(d);
+        return length;
+    }
+}
@@ -0,0 +1,38 @@
+package ga;
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+
+/**
+ * OnesProblem is the problem the benchmarks evolve and evaluate designs of: the fitness of a design is the number 
+ * of its bits that are set, and random designs are of a chosen length, so the same problem can be measured across
+ * genome lengths.
+ *
+ * @author Matt Powell
+ * @version 1.0
+ */
+class OnesProblem implements DoubleProblem
+{
+    private final int length;
+
+    OnesProblem(int length){
+        this.length = length;
+    }
+
+    public double evaluateDouble(Design d){
+        return d.getGenome().cardinality();
+    }
+
+    public ArrayList<Boolean> getRandomDesignVector(){
+        return this.getRandomDesignVector(new SplittableRandom());
+    }
+
+    public ArrayList<Boolean> getRandomDesignVector(SplittableRandom rng){
+        ArrayList<Boolean> list = new ArrayList<Boolean>(this.length);
+        for (int i = 0; i < this.length; i++){
+            list.add(rng.nextBoolean());
+        }
+        return list;
+    }
+}
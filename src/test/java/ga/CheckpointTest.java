@@ -0,0 +1,165 @@
+package ga;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that a Checkpoint reads back the state it was written from, and that a damaged checkpoint, or one of
+ * another problem, is rejected rather than resumed.
+ *
+ * @author Matt Powell
+ * @version 1.0
+ */
+class CheckpointTest
+{
+    private static final int LENGTH = 130; // genome length, which does not fill its last word
+    private static final long SEED = 0x5EEDL;
+
+    private static final Problem PROBLEM = new Problem(){
+        public Number evaluate(Design d){
+            return d.getGenome().cardinality();
+        }
+
+        public ArrayList<Boolean> getRandomDesignVector(){
+            return new ArrayList<Boolean>();
+        }
+    };
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writtenStateIsReadBack() throws IOException {
+        SplittableRandom rng = new SplittableRandom(3);
+        GAData data = CheckpointTest.newData(2);
+        data.resumeEvaluationCount(12345);
+        for (int i = 0; i < data.getIslandCount(); i++){
+            for (int j = 0; j < 5; j++){
+                data.getIsland(i).addEliteDesign(CheckpointTest.randomDesign(rng, 10 * i + j));
+            }
+        }
+        List<Design> population = new ArrayList<Design>();
+        for (int i = 0; i < 2000; i++){
+            population.add(CheckpointTest.randomDesign(rng, Double.NaN));
+        }
+        Path file = this.directory.resolve("checkpoint.bin");
+        Checkpoint.write(file, data, population, SEED);
+        assertFalse(Files.exists(this.directory.resolve("checkpoint.bin.tmp")));
+
+        Checkpoint checkpoint = Checkpoint.read(file, PROBLEM);
+        assertEquals(12345, checkpoint.getEvaluations());
+        assertEquals(SEED, checkpoint.getSeed());
+        assertEquals(population.size(), checkpoint.getPopulation().size());
+        for (int i = 0; i < population.size(); i++){
+            Design read = checkpoint.getPopulation().get(i);
+            assertEquals(population.get(i).getGenome(), read.getGenome());
+            assertFalse(read.isEvaluated());
+        }
+
+        GAData resumed = CheckpointTest.newData(2);
+        checkpoint.restore(resumed);
+        assertEquals(12345, resumed.getEvaluationCount());
+        for (int i = 0; i < data.getIslandCount(); i++){
+            assertArrayEquals(CheckpointTest.contents(data.getIsland(i)), CheckpointTest.contents(resumed.getIsland(i)));
+        }
+    }
+
+    @Test
+    void evaluationsHeldInLeasesAreSaved() throws IOException {
+        GAData data = CheckpointTest.newData(1);
+        EvaluationBudget.Lease lease = data.newLease();
+        assertEquals(10, lease.acquire(10));
+        // The first ten are made once more are acquired, but are only reported when the lease next takes a block
+        assertEquals(5, lease.acquire(5));
+        assertEquals(0, data.getEvaluationCount());
+        Path file = this.directory.resolve("checkpoint.bin");
+        Checkpoint.write(file, data, List.of(), SEED);
+        assertEquals(10, Checkpoint.read(file, PROBLEM).getEvaluations());
+        lease.release();
+        assertEquals(15, data.getEvaluationsMade());
+    }
+
+    @Test
+    void damagedCheckpointIsRejected() throws IOException {
+        SplittableRandom rng = new SplittableRandom(5);
+        GAData data = CheckpointTest.newData(1);
+        data.getIsland(0).addEliteDesign(CheckpointTest.randomDesign(rng, 1.0));
+        List<Design> population = List.of(CheckpointTest.randomDesign(rng, Double.NaN), CheckpointTest.randomDesign(rng, Double.NaN));
+        Path file = this.directory.resolve("checkpoint.bin");
+        Checkpoint.write(file, data, population, SEED);
+        byte[] bytes = Files.readAllBytes(file);
+        // Flip a single bit of each byte after the header in turn, each of which the CRC must catch
+        for (int i = 8; i < bytes.length; i++){
+            bytes[i] ^= 0x10;
+            Files.write(file, bytes);
+            IOException e = assertThrows(IOException.class, () -> Checkpoint.read(file, PROBLEM), "byte " + i);
+            assertTrue(e.getMessage().endsWith("is damaged"), e.getMessage());
+            bytes[i] ^= 0x10;
+        }
+        Files.write(file, bytes);
+        assertEquals(2, Checkpoint.read(file, PROBLEM).getPopulation().size());
+    }
+
+    @Test
+    void checkpointOfAnotherProblemIsRejected() throws IOException {
+        Path file = this.directory.resolve("checkpoint.bin");
+        Checkpoint.write(file, CheckpointTest.newData(1), List.of(), SEED);
+        Problem other = new Problem(){
+            public Number evaluate(Design d){
+                return 0;
+            }
+
+            public ArrayList<Boolean> getRandomDesignVector(){
+                return new ArrayList<Boolean>();
+            }
+        };
+        IOException e = assertThrows(IOException.class, () -> Checkpoint.read(file, other));
+        assertTrue(e.getMessage().contains("is a checkpoint of " + PROBLEM.getClass().getName()), e.getMessage());
+        Files.write(file, new byte[] {1, 2, 3});
+        assertThrows(IOException.class, () -> Checkpoint.read(file, PROBLEM));
+    }
+
+    /*
+     * Method returns run data with the given number of islands for the test problem
+     */
+    private static GAData newData(int islands){
+        return new GAData(10, 8, 0.5, 0.01, 100000, PROBLEM, null, islands);
+    }
+
+    /*
+     * Method returns a design of LENGTH random bits with the given fitness, or unevaluated for NaN
+     */
+    private static Design randomDesign(SplittableRandom rng, double fitness){
+        long[] words = new long[Genome.wordCount(LENGTH)];
+        for (int i = 0; i < words.length; i++){
+            words[i] = rng.nextLong();
+        }
+        Design d = new Design(PROBLEM, new Genome(LENGTH, words));
+        if (!Double.isNaN(fitness)){
+            d.setFitness(fitness);
+        }
+        return d;
+    }
+
+    /*
+     * Method returns the fitness and genome of each elite design of an island, best first, as strings
+     */
+    private static String[] contents(Island island){
+        return island.getEliteArchive().copyBest(Integer.MAX_VALUE).stream()
+            .map(d -> d.getFitness() + ":" + Arrays.toString(d.getGenome().toLongArray())).toArray(String[]::new);
+    }
+}
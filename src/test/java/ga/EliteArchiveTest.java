@@ -0,0 +1,244 @@
+package ga;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the EliteArchive: that its slots stay a min-heap on fitness, rooted at the worst design held, that
+ * it keeps exactly the best designs offered to it, whether offered by one thread or many, and that its index of
+ * the genomes held counts every copy added and evicted, so duplicates are found however the archive changes.
+ *
+ * @author Matt Powell
+ * @version 1.0
+ */
+class EliteArchiveTest
+{
+    private static final Problem PROBLEM = new Problem(){
+        public Number evaluate(Design d){
+            return d.getGenome().cardinality();
+        }
+
+        public ArrayList<Boolean> getRandomDesignVector(){
+            return new ArrayList<Boolean>();
+        }
+    };
+
+    @Test
+    void heapInvariantHoldsAfterEveryOffer(){
+        SplittableRandom rng = new SplittableRandom(11);
+        EliteArchive archive = new EliteArchive(37);
+        double[] offered = new double[5000];
+        for (int i = 0; i < offered.length; i++){
+            offered[i] = rng.nextInt(1000) / 10.0;
+            archive.offer(EliteArchiveTest.design(i, offered[i]));
+            EliteArchiveTest.assertHeap(archive);
+        }
+        EliteArchiveTest.assertKeepsBest(archive, offered, 37);
+    }
+
+    @Test
+    void offersNoBetterThanTheWorstAreRejectedOnceFull(){
+        EliteArchive archive = new EliteArchive(3);
+        assertTrue(archive.offer(EliteArchiveTest.design(1, 5.0)));
+        assertTrue(archive.offer(EliteArchiveTest.design(2, 1.0)));
+        assertTrue(archive.offer(EliteArchiveTest.design(3, 3.0)));
+        assertFalse(archive.offer(EliteArchiveTest.design(4, 1.0)));
+        assertFalse(archive.offer(EliteArchiveTest.design(5, 0.5)));
+        assertTrue(archive.offer(EliteArchiveTest.design(6, 2.0)));
+        assertEquals(3, archive.size());
+        assertArrayEquals(new double[] {5.0, 10.0 / 3, 2.0}, archive.summariseFitness(), 1e-12);
+        EliteArchiveTest.assertHeap(archive);
+    }
+
+    @Test
+    void concurrentOffersKeepTheBestDesigns() throws Exception {
+        int threads = 8;
+        int perThread = 20000;
+        EliteArchive archive = new EliteArchive(64);
+        double[] offered = new double[threads * perThread];
+        SplittableRandom rng = new SplittableRandom(23);
+        for (int i = 0; i < offered.length; i++){
+            offered[i] = rng.nextDouble();
+        }
+        CyclicBarrier start = new CyclicBarrier(threads);
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++){
+            int first = t * perThread;
+            Thread worker = new Thread(() -> {
+                try{
+                    start.await();
+                } catch (Exception e){
+                    throw new IllegalStateException(e);
+                }
+                for (int i = first; i < first + perThread; i++){
+                    archive.offer(EliteArchiveTest.design(i, offered[i]));
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker: workers){
+            worker.join();
+        }
+        EliteArchiveTest.assertHeap(archive);
+        EliteArchiveTest.assertKeepsBest(archive, offered, 64);
+    }
+
+    @Test
+    void rouletteDrawsInProportionToWeight(){
+        EliteArchive archive = new EliteArchive(4);
+        for (int id = 1; id <= 4; id++){
+            archive.offer(EliteArchiveTest.design(id, id));
+        }
+        // Weights are the fitness above the worst plus a quarter of the spread: 0.75, 1.75, 2.75 and 3.75
+        double[] expected = {0.75 / 9, 1.75 / 9, 2.75 / 9, 3.75 / 9};
+        SplittableRandom rng = new SplittableRandom(41);
+        int draws = 200000;
+        Map<Double, Integer> counts = new HashMap<Double, Integer>();
+        for (int i = 0; i < draws; i++){
+            counts.merge(archive.select(SelectionStrategy.ROULETTE, 2, rng).getFitness(), 1, Integer::sum);
+        }
+        for (int id = 1; id <= 4; id++){
+            assertEquals(expected[id - 1], counts.getOrDefault((double) id, 0) / (double) draws, 0.01, "fitness " + id);
+        }
+    }
+
+    @Test
+    void rouletteTableFollowsTheArchive(){
+        EliteArchive archive = new EliteArchive(64);
+        SplittableRandom rng = new SplittableRandom(43);
+        for (int id = 0; id < 64; id++){
+            archive.offer(EliteArchiveTest.design(id, 1.0));
+        }
+        archive.select(SelectionStrategy.ROULETTE, 2, rng);
+        // Replace every design with a fitter one, then draws must come from the new designs once rebuilt
+        for (int id = 64; id < 128; id++){
+            archive.offer(EliteArchiveTest.design(id, 2.0 + id));
+        }
+        for (int i = 0; i < 1000; i++){
+            assertTrue(archive.select(SelectionStrategy.ROULETTE, 2, rng).getFitness() > 2.0);
+        }
+    }
+
+    @Test
+    void duplicatesAreRejectedUntilEvicted(){
+        EliteArchive archive = new EliteArchive(4);
+        for (int id = 1; id <= 4; id++){
+            assertTrue(archive.offer(EliteArchiveTest.design(id, id)));
+        }
+        // A genome already held is rejected, however fit the copy offered
+        assertFalse(archive.offer(EliteArchiveTest.design(2, 10.0)));
+        assertEquals(1, archive.getDuplicateOffers());
+        // Once evicted, a genome is no longer held, so a copy of it is accepted again
+        assertTrue(archive.offer(EliteArchiveTest.design(5, 5.0)));
+        assertTrue(archive.offer(EliteArchiveTest.design(1, 6.0)));
+        assertFalse(archive.offer(EliteArchiveTest.design(5, 7.0)));
+        assertEquals(4, archive.size());
+        assertEquals(4, archive.distinct());
+        assertEquals(2, archive.getDuplicateOffers());
+    }
+
+    @Test
+    void copiesOfAGenomeAreCountedThroughEviction(){
+        EliteArchive archive = new EliteArchive(4);
+        archive.setAllowDuplicates(true);
+        for (int i = 1; i <= 10; i++){
+            assertTrue(archive.offer(EliteArchiveTest.design(7, i)));
+        }
+        assertEquals(4, archive.size());
+        assertEquals(1, archive.distinct());
+        // Each copy evicted is removed from the index, and the genome is dropped only with the last copy
+        for (int id = 1; id <= 4; id++){
+            assertTrue(archive.offer(EliteArchiveTest.design(100 + id, 10.0 + id)));
+            assertEquals(id < 4 ? id + 1 : 4, archive.distinct());
+        }
+        archive.setAllowDuplicates(false);
+        assertTrue(archive.offer(EliteArchiveTest.design(7, 20.0)));
+        assertFalse(archive.offer(EliteArchiveTest.design(7, 21.0)));
+    }
+
+    @Test
+    void distinctCountMatchesTheContentsThroughChurn(){
+        for (boolean allowDuplicates: new boolean[] {false, true}){
+            SplittableRandom rng = new SplittableRandom(allowDuplicates ? 31 : 37);
+            EliteArchive archive = new EliteArchive(50);
+            archive.setAllowDuplicates(allowDuplicates);
+            for (int i = 0; i < 20000; i++){
+                // Genomes are drawn from a small set, so most are offered while copies are held
+                archive.offer(EliteArchiveTest.design(rng.nextInt(120), rng.nextDouble()));
+                Map<Genome, Integer> copies = new HashMap<Genome, Integer>();
+                for (Design d: archive.toList()){
+                    copies.merge(d.getGenome(), 1, Integer::sum);
+                }
+                assertEquals(copies.size(), archive.distinct(), "offer " + i);
+                if (!allowDuplicates){
+                    assertEquals(archive.size(), copies.size(), "offer " + i);
+                }
+            }
+            EliteArchiveTest.assertHeap(archive);
+        }
+    }
+
+    @Test
+    void genomesWhoseHashesShareAnEntryAreCountedApart(){
+        // Far more genomes than slots pass through the archive, so removals shift probe sequences
+        EliteArchive archive = new EliteArchive(8);
+        HashSet<Long> held = new HashSet<Long>();
+        for (int i = 0; i < 1000; i++){
+            archive.offer(EliteArchiveTest.design(i, i));
+            held.add((long) i);
+            if (held.size() > 8){
+                held.remove((long) i - 8);
+            }
+            for (long id: held){
+                assertFalse(archive.offer(EliteArchiveTest.design(id, 2000.0 + i)), "copy of " + id + " accepted");
+            }
+            assertEquals(held.size(), archive.distinct());
+        }
+    }
+
+    /*
+     * Method returns an evaluated design with the given fitness, whose genome is distinct for each id
+     */
+    static Design design(long id, double fitness){
+        Design d = new Design(PROBLEM, new Genome(128, new long[] {id, ~id}));
+        d.setFitness(fitness);
+        return d;
+    }
+
+    /*
+     * Method checks that every design in the archive is no fitter than its children, so the root is the worst
+     */
+    private static void assertHeap(EliteArchive archive){
+        List<Design> heap = archive.toList();
+        for (int i = 1; i < heap.size(); i++){
+            int parent = (i - 1) / 2;
+            assertTrue(heap.get(parent).getFitness() <= heap.get(i).getFitness(), 
+                "slot " + parent + " is fitter than its child " + i);
+        }
+    }
+
+    /*
+     * Method checks that the archive holds the capacity best of the values offered
+     */
+    private static void assertKeepsBest(EliteArchive archive, double[] offered, int capacity){
+        double[] sorted = offered.clone();
+        Arrays.sort(sorted);
+        double[] best = Arrays.copyOfRange(sorted, sorted.length - capacity, sorted.length);
+        double[] held = archive.toList().stream().mapToDouble(Design::getFitness).sorted().toArray();
+        assertArrayEquals(best, held);
+    }
+}
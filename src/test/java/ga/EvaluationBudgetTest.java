@@ -0,0 +1,125 @@
+package ga;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that an EvaluationBudget shared by contending leases grants exactly its total number of evaluations,
+ * however the leases interleave and whatever they ask for each time.
+ *
+ * @author Matt Powell
+ * @version 1.0
+ */
+class EvaluationBudgetTest
+{
+    private static final int THREADS = 16;
+
+    @RepeatedTest(20)
+    void contendingLeasesGrantExactlyTheBudget() throws Exception {
+        for (long total: new long[] {1, 63, 10007, 100000}){
+            EvaluationBudget budget = new EvaluationBudget(total);
+            assertEquals(total, EvaluationBudgetTest.drain(budget), "evaluations granted of " + total);
+            assertEquals(total, budget.getCompleted());
+            assertTrue(budget.isExhausted());
+        }
+    }
+
+    @Test
+    void evaluationsReleasedUnusedAreGrantedToOtherLeases() throws Exception {
+        EvaluationBudget budget = new EvaluationBudget(1000);
+        // A lease that stops early hands back what it holds, and what it acquired counts as made
+        EvaluationBudget.Lease early = budget.newLease();
+        EvaluationBudget.Lease idle = budget.newLease();
+        assertEquals(5, early.acquire(5));
+        early.release();
+        assertFalse(budget.isExhausted());
+        assertEquals(5, budget.getCompleted());
+        assertEquals(995, EvaluationBudgetTest.drain(budget));
+        assertEquals(1000, budget.getCompleted());
+        assertTrue(budget.isExhausted());
+        idle.release();
+    }
+
+    @Test
+    void releasingTheLastLeaseMeetsTheTerminationCriteria(){
+        EvaluationBudget budget = new EvaluationBudget(1000);
+        EvaluationBudget.Lease first = budget.newLease();
+        EvaluationBudget.Lease second = budget.newLease();
+        assertEquals(10, first.acquire(10));
+        assertEquals(10, second.acquire(10));
+        first.release();
+        // Releasing a lease twice does not count it twice
+        first.release();
+        assertFalse(budget.isExhausted());
+        // Nobody is left to draw the evaluations returned, so the budget is done rather than waited on forever
+        second.release();
+        assertTrue(budget.isExhausted());
+        assertEquals(20, budget.getCompleted());
+    }
+
+    @Test
+    void resumedBudgetGrantsOnlyWhatRemains() throws Exception {
+        EvaluationBudget budget = new EvaluationBudget(5000);
+        budget.resume(4321);
+        assertEquals(679, EvaluationBudgetTest.drain(budget));
+        assertEquals(5000, budget.getCompleted());
+    }
+
+    @Test
+    void emptyBudgetIsExhaustedAtOnce(){
+        EvaluationBudget budget = new EvaluationBudget(0);
+        assertTrue(budget.isExhausted());
+        assertEquals(0, budget.newLease().acquire(10));
+    }
+
+    /*
+     * Method has THREADS threads acquire evaluations from the budget through their own leases, each asking for
+     * a different number at a time, until it is spent, returning the number of evaluations granted in total
+     */
+    private static long drain(EvaluationBudget budget) throws Exception {
+        LongAdder granted = new LongAdder();
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        List<Thread> threads = new ArrayList<Thread>();
+        List<Throwable> failures = new ArrayList<Throwable>();
+        for (int t = 0; t < THREADS; t++){
+            int ask = 1 + t * 7 % 100;
+            Thread thread = new Thread(() -> {
+                EvaluationBudget.Lease lease = budget.newLease();
+                try{
+                    start.await();
+                    int n;
+                    while ((n = lease.acquire(ask)) > 0){
+                        granted.add(n);
+                        if (n > ask){
+                            throw new AssertionError("granted " + n + " evaluations when " + ask + " were asked for");
+                        }
+                    }
+                } catch (Throwable e){
+                    synchronized (failures){
+                        failures.add(e);
+                    }
+                } finally {
+                    lease.release();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread: threads){
+            thread.join();
+        }
+        if (!failures.isEmpty()){
+            throw new AssertionError(failures.get(0));
+        }
+        return granted.sum();
+    }
+}
@@ -0,0 +1,159 @@
+package ga;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests of the bit-packed Genome and of the evolution kernels which write its words directly, at lengths on
+ * either side of the 64 bit word boundaries, where the bits beyond the end of the genome must stay clear.
+ *
+ * @author Matt Powell
+ * @version 1.0
+ */
+class GenomeTest
+{
+    private static final Problem PROBLEM = new Problem(){
+        public Number evaluate(Design d){
+            return d.getGenome().cardinality();
+        }
+
+        public ArrayList<Boolean> getRandomDesignVector(){
+            return new ArrayList<Boolean>();
+        }
+    };
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 63, 64, 65, 127, 128, 130})
+    void setGetAndFlipEveryBit(int length){
+        Genome genome = new Genome(length);
+        for (int i = 0; i < length; i++){
+            genome.set(i, true);
+            assertTrue(genome.get(i));
+            assertEquals(i + 1, genome.cardinality());
+            assertEquals(1, genome.cardinality(i, i + 1));
+        }
+        GenomeTest.assertTailClear(genome);
+        for (int i = 0; i < length; i++){
+            genome.flip(i);
+            assertFalse(genome.get(i));
+            assertEquals(length - i - 1, genome.cardinality());
+        }
+        genome.flip(length - 1);
+        genome.set(0, false);
+        assertEquals(length == 1 ? 0 : 1, genome.cardinality());
+        assertEquals(length == 1 ? -1 : length - 1, genome.nextSetBit(0));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 63, 64, 65, 127, 128, 130})
+    void indicesOutsideTheGenomeAreRejected(int length){
+        Genome genome = new Genome(length);
+        assertThrows(IndexOutOfBoundsException.class, () -> genome.get(length));
+        assertThrows(IndexOutOfBoundsException.class, () -> genome.get(-1));
+        assertThrows(IndexOutOfBoundsException.class, () -> genome.cardinality(0, length + 1));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 63, 64, 65, 127, 128, 130})
+    void packedWordsRoundTrip(int length){
+        long[] words = new long[Genome.wordCount(length)];
+        Arrays.fill(words, -1L);
+        Genome genome = new Genome(length, words);
+        // Bits beyond the end of the genome are cleared, so every full genome is equal
+        assertEquals(length, genome.cardinality());
+        GenomeTest.assertTailClear(genome);
+        Genome copy = new Genome(length, genome.toLongArray());
+        assertEquals(genome, copy);
+        assertEquals(genome.hashCode(), copy.hashCode());
+        assertEquals(genome, Genome.fromList(genome.asList()));
+        assertThrows(IllegalArgumentException.class, () -> new Genome(length, new long[Genome.wordCount(length) + 1]));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 63, 64, 65, 127, 128, 130})
+    void kernelsKeepBitsBeyondTheEndClear(int length){
+        SplittableRandom rng = new SplittableRandom(length);
+        for (EvolutionKernel kernel: EvolutionKernel.values()){
+            Design child = GenomeTest.randomDesign(length, rng);
+            Design other = GenomeTest.randomDesign(length, rng);
+            for (int i = 0; i < 100; i++){
+                child.evolve(other, 0.5, 0.5, kernel, rng);
+                GenomeTest.assertTailClear(child.getGenome());
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 63, 64, 65, 127, 128, 130})
+    void fullCrossoverTakesEveryBitOfTheOtherParent(int length){
+        SplittableRandom rng = new SplittableRandom(length);
+        for (EvolutionKernel kernel: EvolutionKernel.values()){
+            Design child = GenomeTest.randomDesign(length, rng);
+            Design other = GenomeTest.randomDesign(length, rng);
+            child.evolve(other, 1.0, 0.0, kernel, rng);
+            assertEquals(other.getGenome(), child.getGenome(), kernel.toString());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 63, 64, 65, 127, 128, 130})
+    void fullMutationFlipsEveryBit(int length){
+        SplittableRandom rng = new SplittableRandom(length);
+        for (EvolutionKernel kernel: EvolutionKernel.values()){
+            Design child = GenomeTest.randomDesign(length, rng);
+            long[] before = child.getGenome().toLongArray();
+            child.evolve(child, 0.0, 1.0, kernel, rng);
+            Genome genome = child.getGenome();
+            for (int i = 0; i < length; i++){
+                assertEquals((before[i >>> 6] & (1L << i)) == 0, genome.get(i), kernel + " bit " + i);
+            }
+            GenomeTest.assertTailClear(genome);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {63, 64, 65, 130})
+    void noCrossoverOrMutationLeavesTheDesignUnchanged(int length){
+        SplittableRandom rng = new SplittableRandom(length);
+        for (EvolutionKernel kernel: EvolutionKernel.values()){
+            Design child = GenomeTest.randomDesign(length, rng);
+            Design other = GenomeTest.randomDesign(length, rng);
+            long[] before = child.getGenome().toLongArray();
+            child.evolve(other, 0.0, 0.0, kernel, rng);
+            assertArrayEquals(before, child.getGenome().toLongArray(), kernel.toString());
+        }
+    }
+
+    /*
+     * Method returns a design of the given length with random bits
+     */
+    private static Design randomDesign(int length, SplittableRandom rng){
+        long[] words = new long[Genome.wordCount(length)];
+        for (int i = 0; i < words.length; i++){
+            words[i] = rng.nextLong();
+        }
+        return new Design(PROBLEM, new Genome(length, words));
+    }
+
+    /*
+     * Method checks that no bit beyond the end of the genome is set in its last word
+     */
+    private static void assertTailClear(Genome genome){
+        int length = genome.length();
+        long[] words = genome.words();
+        if (length % 64 != 0){
+            assertEquals(0L, words[words.length - 1] & ~(-1L >>> -length), "bits beyond length " + length);
+        }
+        assertEquals(Genome.wordCount(length), words.length);
+    }
+}